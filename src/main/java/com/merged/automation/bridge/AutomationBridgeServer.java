@@ -1,11 +1,22 @@
 package com.merged.automation.bridge;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.config.ConfigLoader;
+import com.merged.automation.bridge.security.ClientPrincipal;
 import com.merged.automation.bridge.security.SecurityFactory;
+import com.merged.automation.bridge.security.SecurityManager;
 import com.merged.automation.bridge.service.ClientManager;
+import com.merged.automation.bridge.service.MessageDispatcher;
 import com.merged.automation.bridge.service.RpcProcessor;
 import com.merged.automation.bridge.websocket.AutomationWebSocketHandler;
+import com.merged.automation.bridge.websocket.FrameEncoder;
+import com.merged.automation.bridge.websocket.RpcCodecs;
+import com.merged.automation.bridge.websocket.VncChannelHandler;
+import com.merged.automation.bridge.websocket.VncRelay;
+import com.merged.automation.bridge.websocket.WireFormat;
 import org.apache.commons.cli.*;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
@@ -14,11 +25,16 @@ import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.websocket.server.JettyServerUpgradeRequest;
+import org.eclipse.jetty.websocket.server.JettyServerUpgradeResponse;
 import org.eclipse.jetty.websocket.server.config.JettyWebSocketServletContainerInitializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -33,9 +49,14 @@ public class AutomationBridgeServer {
     private static final int DEFAULT_PORT = 9090;
     private static final String DEFAULT_HOST = "0.0.0.0";
     
-    private final ObjectMapper objectMapper;
+    private final BridgeConfig bridgeConfig;
+    private final RpcCodecs codecs;
+    private final ByteBufferPool bufferPool;
+    private final FrameEncoder frameEncoder;
     private final ClientManager clientManager;
+    private final VncRelay vncRelay;
     private final RpcProcessor rpcProcessor;
+    private final MessageDispatcher messageDispatcher;
     private final SecurityFactory.SecurityComponents securityComponents;
     private Server server;
     private int port;
@@ -52,9 +73,16 @@ public class AutomationBridgeServer {
         this.keystorePath = keystorePath;
         this.keystorePassword = keystorePassword;
         
-        this.objectMapper = new ObjectMapper();
-        this.clientManager = new ClientManager();
-        this.rpcProcessor = new RpcProcessor(clientManager);
+        this.bridgeConfig = ConfigLoader.bind(new BridgeConfig());
+        this.codecs = new RpcCodecs(bridgeConfig);
+        this.bufferPool = new ArrayByteBufferPool();
+        this.frameEncoder = new FrameEncoder(bufferPool, bridgeConfig.getOutboundBufferSize(), 
+            bridgeConfig.isOutboundDirectBuffers());
+        this.clientManager = new ClientManager(codecs, bridgeConfig, frameEncoder);
+        this.vncRelay = new VncRelay(frameEncoder, bridgeConfig);
+        clientManager.addListener(vncRelay);
+        this.rpcProcessor = new RpcProcessor(clientManager, bridgeConfig, vncRelay);
+        this.messageDispatcher = new MessageDispatcher(bridgeConfig);
         this.securityComponents = SecurityFactory.createSecurityComponents();
         
         // Security cleanup scheduler
@@ -76,6 +104,8 @@ public class AutomationBridgeServer {
         
         // Configure Jetty server
         server = new Server();
+        // Connectors and WebSocket sessions pick up the pool outbound messages are serialized into
+        server.addBean(bufferPool);
         
         ServerConnector connector;
         if (sslEnabled && keystorePath != null) {
@@ -122,12 +152,62 @@ public class AutomationBridgeServer {
         // Configure WebSocket
         JettyWebSocketServletContainerInitializer.configure(context, (servletContext, wsContainer) -> {
             // Configure WebSocket parameters
-            wsContainer.setMaxTextMessageSize(65536);
+            wsContainer.setMaxTextMessageSize(bridgeConfig.getLimitsMaxMessageSize());
+            wsContainer.setMaxBinaryMessageSize(bridgeConfig.getLimitsMaxMessageSize());
+            // Checked against the frame header, before the payload is read
+            wsContainer.setMaxFrameSize(bridgeConfig.getLimitsMaxMessageSize());
             wsContainer.setIdleTimeout(Duration.ofMinutes(5));
             
             // Add WebSocket endpoint
             wsContainer.addMapping("/ws", (upgradeRequest, upgradeResponse) -> {
-                return new AutomationWebSocketHandler(objectMapper, clientManager, rpcProcessor, securityComponents.securityManager);
+                // Blocked addresses are turned away before any token is verified
+                SecurityManager securityManager = securityComponents.securityManager;
+                String remoteIp = getRemoteIp(upgradeRequest);
+                if (!checkConnection(securityManager, remoteIp, upgradeResponse)) {
+                    return null;
+                }
+                
+                // A token in the upgrade request is verified here, before anything is set up for the connection
+                ClientPrincipal principal = null;
+                String token = securityManager.getUpgradeToken(upgradeRequest);
+                if (token != null) {
+                    principal = securityManager.authenticateUpgrade(token, remoteIp);
+                    if (principal == null) {
+                        reject(upgradeResponse, "Invalid or expired token");
+                        return null;
+                    }
+                } else if (securityComponents.securityConfig.isUpgradeAuthRequired()) {
+                    reject(upgradeResponse, "Authentication required");
+                    return null;
+                }
+                
+                // Clients that offer no known subprotocol keep using JSON text frames
+                WireFormat wireFormat = WireFormat.negotiate(upgradeRequest.getSubProtocols());
+                String acceptedSubprotocol = acceptSubprotocol(wireFormat, upgradeRequest.getSubProtocols());
+                if (acceptedSubprotocol != null) {
+                    upgradeResponse.setAcceptedSubProtocol(acceptedSubprotocol);
+                }
+                if (wireFormat == null) {
+                    wireFormat = WireFormat.JSON;
+                }
+                return new AutomationWebSocketHandler(codecs, clientManager, rpcProcessor, 
+                    securityManager, bridgeConfig, messageDispatcher, wireFormat, frameEncoder, principal);
+            });
+            
+            // Binary VNC relay, entered with a ticket from vnc.open_channel
+            wsContainer.addMapping("/vnc", (upgradeRequest, upgradeResponse) -> {
+                // Checked before the ticket is redeemed, so a blocked address cannot use one up
+                if (!checkConnection(securityComponents.securityManager, getRemoteIp(upgradeRequest), upgradeResponse)) {
+                    return null;
+                }
+                List<String> ticketParam = upgradeRequest.getParameterMap().get("ticket");
+                VncRelay.Ticket ticket = vncRelay.redeem(
+                    ticketParam != null && !ticketParam.isEmpty() ? ticketParam.get(0) : null);
+                if (ticket == null) {
+                    reject(upgradeResponse, "Invalid or expired VNC ticket");
+                    return null;
+                }
+                return new VncChannelHandler(vncRelay, ticket);
             });
         });
         
@@ -170,6 +250,55 @@ public class AutomationBridgeServer {
         logger.info("AutomationScheduler should connect as: AUTOMATION_SCHEDULER");
     }
     
+    /**
+     * Check the IP whitelist and the per-IP connection rate limit for an upgrade request
+     *
+     * @return false if the upgrade was refused
+     */
+    /**
+     * Subprotocol to answer the handshake with: the negotiated format, else the
+     * bearer token entry. Browsers fail a handshake that offered subprotocols
+     * and got none back, so one offering only {@code bearer.<token>} needs it echoed.
+     *
+     * @return null if the client offered neither
+     */
+    static String acceptSubprotocol(WireFormat wireFormat, List<String> offeredSubprotocols) {
+        if (wireFormat != null) {
+            return wireFormat.getSubprotocol();
+        }
+        return SecurityManager.findBearerSubprotocol(offeredSubprotocols);
+    }
+    
+    /**
+     * Address of the peer without the brackets the servlet request puts around IPv6 addresses
+     */
+    private static String getRemoteIp(JettyServerUpgradeRequest upgradeRequest) {
+        InetSocketAddress remoteAddress = (InetSocketAddress) upgradeRequest.getRemoteSocketAddress();
+        return remoteAddress.getAddress().getHostAddress();
+    }
+    
+    private static boolean checkConnection(SecurityManager securityManager, String remoteIp, 
+                                           JettyServerUpgradeResponse upgradeResponse) {
+        SecurityManager.SecurityCheckResult securityCheck = securityManager.checkConnectionSecurity(remoteIp);
+        if (!securityCheck.isAllowed()) {
+            logger.warn("Connection from {} blocked for security reasons: {}", remoteIp, securityCheck.getReason());
+            reject(upgradeResponse, securityCheck.getReason());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Refuse a WebSocket upgrade with 403
+     */
+    private static void reject(JettyServerUpgradeResponse upgradeResponse, String reason) {
+        try {
+            upgradeResponse.sendForbidden(reason);
+        } catch (IOException e) {
+            logger.debug("Failed to reject WebSocket upgrade: {}", e.getMessage());
+        }
+    }
+    
     /**
      * Stop the server
      */
@@ -181,8 +310,11 @@ public class AutomationBridgeServer {
                 if (securityCleanupExecutor != null) {
                     securityCleanupExecutor.shutdown();
                 }
+                securityComponents.ipWhitelistService.shutdown();
                 
                 server.stop();
+                messageDispatcher.shutdown();
+                rpcProcessor.shutdown();
                 logger.info("Server stopped successfully");
             } catch (Exception e) {
                 logger.error("Error stopping server", e);
@@ -0,0 +1,416 @@
+package com.merged.automation.bridge.config;
+
+import com.merged.automation.bridge.routing.LoadBalancingStrategy;
+import com.merged.automation.bridge.service.MessageDispatcher;
+import com.merged.automation.bridge.websocket.OutboundQueue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Transport and routing settings for the bridge.
+ * Field initializers hold the defaults so the class also works when it is
+ * instantiated directly instead of through Spring.
+ */
+@Configuration
+public class BridgeConfig {
+
+    @Value("${bridge.outbound.high-watermark:1024}")
+    private int outboundHighWatermark = 1024;
+
+    @Value("${bridge.outbound.low-watermark:256}")
+    private int outboundLowWatermark = 256;
+
+    @Value("${bridge.outbound.max-batch-messages:64}")
+    private int outboundMaxBatchMessages = 64;
+
+    @Value("${bridge.outbound.overflow-policy:BACKPRESSURE}")
+    private String outboundOverflowPolicy = "BACKPRESSURE";
+
+    @Value("${bridge.outbound.slow-consumer-timeout:30000}")
+    private long outboundSlowConsumerTimeout = 30000;
+
+    @Value("${bridge.outbound.buffer-size:2048}")
+    private int outboundBufferSize = 2048;
+
+    @Value("${bridge.outbound.direct-buffers:true}")
+    private boolean outboundDirectBuffers = true;
+
+    @Value("${bridge.outbound.coalesce.allowed:true}")
+    private boolean outboundCoalesceAllowed = true;
+
+    @Value("${bridge.outbound.coalesce.max-delay-micros:2000}")
+    private long outboundCoalesceMaxDelayMicros = 2000;
+
+    @Value("${bridge.outbound.coalesce.max-messages:64}")
+    private int outboundCoalesceMaxMessages = 64;
+
+    @Value("${bridge.dispatch.mode:PLATFORM}")
+    private String dispatchMode = "PLATFORM";
+
+    @Value("${bridge.dispatch.worker-threads:0}")
+    private int dispatchWorkerThreads = 0;
+
+    @Value("${bridge.dispatch.max-pending-per-session:256}")
+    private int dispatchMaxPendingPerSession = 256;
+
+    @Value("${bridge.broadcast.parallel-threshold:512}")
+    private int broadcastParallelThreshold = 512;
+
+    @Value("${bridge.conflation.enabled:false}")
+    private boolean conflationEnabled = false;
+
+    @Value("${bridge.conflation.methods:automation.status_update}")
+    private List<String> conflationMethods = List.of("automation.status_update");
+
+    @Value("${bridge.conflation.key-param:automationId}")
+    private String conflationKeyParam = "automationId";
+
+    @Value("${bridge.subscriptions.key-params:automationId,deviceId}")
+    private List<String> subscriptionKeyParams = List.of("automationId", "deviceId");
+
+    @Value("${bridge.subscriptions.max-per-client:1000}")
+    private int subscriptionMaxPerClient = 1000;
+
+    @Value("${bridge.subscriptions.legacy-broadcast:true}")
+    private boolean subscriptionLegacyBroadcast = true;
+
+    @Value("${bridge.batch.max-size:256}")
+    private int batchMaxSize = 256;
+
+    @Value("${bridge.batch.group-forwarded:true}")
+    private boolean batchGroupForwarded = true;
+
+    @Value("${bridge.codec.blackbird:true}")
+    private boolean codecBlackbird = true;
+
+    @Value("${bridge.codec.fail-on-unknown-properties:false}")
+    private boolean codecFailOnUnknownProperties = false;
+
+    @Value("${bridge.limits.max-message-size:65536}")
+    private int limitsMaxMessageSize = 65536;
+
+    @Value("${bridge.limits.max-nesting-depth:32}")
+    private int limitsMaxNestingDepth = 32;
+
+    @Value("${bridge.limits.max-string-length:16384}")
+    private int limitsMaxStringLength = 16384;
+
+    @Value("${bridge.limits.max-number-length:64}")
+    private int limitsMaxNumberLength = 64;
+
+    @Value("${bridge.limits.max-container-entries:1024}")
+    private int limitsMaxContainerEntries = 1024;
+
+    @Value("${bridge.stream.initial-credits:8}")
+    private int streamInitialCredits = 8;
+
+    @Value("${bridge.stream.max-credits:64}")
+    private int streamMaxCredits = 64;
+
+    @Value("${bridge.stream.idle-timeout:30000}")
+    private long streamIdleTimeout = 30000;
+
+    @Value("${bridge.vnc.max-frame-size:4194304}")
+    private int vncMaxFrameSize = 4194304;
+
+    @Value("${bridge.vnc.max-pending-frames:4}")
+    private int vncMaxPendingFrames = 4;
+
+    @Value("${bridge.vnc.keyframe-request-interval:500}")
+    private long vncKeyframeRequestInterval = 500;
+
+    @Value("${bridge.vnc.ticket-timeout:30000}")
+    private long vncTicketTimeout = 30000;
+
+    @Value("${bridge.rpc.pass-through:true}")
+    private boolean rpcPassThrough = true;
+
+    @Value("${bridge.rpc.request-timeout:30000}")
+    private long rpcRequestTimeout = 30000;
+
+    @Value("${bridge.rpc.timeout-tick:100}")
+    private long rpcTimeoutTick = 100;
+
+    @Value("${bridge.rpc.timeout-wheel-size:512}")
+    private int rpcTimeoutWheelSize = 512;
+
+    @Value("${bridge.routing.scheduler.strategy:ROUND_ROBIN}")
+    private String schedulerRoutingStrategy = "ROUND_ROBIN";
+
+    @Value("${bridge.routing.scheduler.hash-key:automationId}")
+    private String schedulerRoutingHashKey = "automationId";
+
+    @Value("${bridge.routing.service.key-params:deviceId,automationId}")
+    private List<String> serviceRoutingKeyParams = List.of("deviceId", "automationId");
+
+    @Value("${bridge.routing.virtual-nodes:160}")
+    private int routingVirtualNodes = 160;
+
+    public int getOutboundHighWatermark() {
+        return outboundHighWatermark;
+    }
+
+    public int getOutboundLowWatermark() {
+        return Math.min(outboundLowWatermark, outboundHighWatermark);
+    }
+
+    public int getOutboundMaxBatchMessages() {
+        return Math.max(1, outboundMaxBatchMessages);
+    }
+
+    public OutboundQueue.OverflowPolicy getOutboundOverflowPolicy() {
+        return OutboundQueue.OverflowPolicy.valueOf(outboundOverflowPolicy.trim().toUpperCase());
+    }
+
+    public long getOutboundSlowConsumerTimeout() {
+        return outboundSlowConsumerTimeout;
+    }
+
+    /**
+     * Initial size of the pooled buffer a message is serialized into
+     */
+    public int getOutboundBufferSize() {
+        return Math.max(64, outboundBufferSize);
+    }
+
+    /**
+     * Whether outbound messages are serialized into direct buffers
+     */
+    public boolean isOutboundDirectBuffers() {
+        return outboundDirectBuffers;
+    }
+
+    /**
+     * Whether clients may opt in to having outbound messages joined into batch frames
+     */
+    public boolean isOutboundCoalesceAllowed() {
+        return outboundCoalesceAllowed;
+    }
+
+    /**
+     * Longest a busy session's flush may wait for more messages, in microseconds
+     */
+    public long getOutboundCoalesceMaxDelayMicros() {
+        return outboundCoalesceMaxDelayMicros;
+    }
+
+    public int getOutboundCoalesceMaxMessages() {
+        return Math.max(2, outboundCoalesceMaxMessages);
+    }
+
+    public MessageDispatcher.Mode getDispatchMode() {
+        return MessageDispatcher.Mode.valueOf(dispatchMode.trim().toUpperCase());
+    }
+
+    /**
+     * Worker pool size for PLATFORM mode, 0 means one thread per core
+     */
+    public int getDispatchWorkerThreads() {
+        return dispatchWorkerThreads;
+    }
+
+    public int getDispatchMaxPendingPerSession() {
+        return Math.max(1, dispatchMaxPendingPerSession);
+    }
+
+    /**
+     * Recipient count from which a broadcast fan-out is split across cores
+     */
+    public int getBroadcastParallelThreshold() {
+        return broadcastParallelThreshold;
+    }
+
+    /**
+     * Whether unwritten notifications are replaced by newer ones for the same key
+     */
+    public boolean isConflationEnabled() {
+        return conflationEnabled;
+    }
+
+    public List<String> getConflationMethods() {
+        return conflationMethods;
+    }
+
+    /**
+     * Notification param identifying the entity whose latest state is kept, e.g. automationId
+     */
+    public String getConflationKeyParam() {
+        return conflationKeyParam;
+    }
+
+    /**
+     * Notification params that subscriptions can filter on
+     */
+    public List<String> getSubscriptionKeyParams() {
+        return subscriptionKeyParams;
+    }
+
+    public int getSubscriptionMaxPerClient() {
+        return subscriptionMaxPerClient;
+    }
+
+    /**
+     * Whether clients without any subscription still receive the type-wide notification broadcast
+     */
+    public boolean isSubscriptionLegacyBroadcast() {
+        return subscriptionLegacyBroadcast;
+    }
+
+    /**
+     * Most messages accepted in one batch frame
+     */
+    public int getBatchMaxSize() {
+        return Math.max(1, batchMaxSize);
+    }
+
+    /**
+     * Whether requests forwarded from a batch frame go to each target as one batch frame
+     */
+    public boolean isBatchGroupForwarded() {
+        return batchGroupForwarded;
+    }
+
+    /**
+     * Whether message codecs use generated accessors instead of reflection
+     */
+    public boolean isCodecBlackbird() {
+        return codecBlackbird;
+    }
+
+    /**
+     * Whether messages with fields the bridge does not know are rejected instead of read
+     */
+    public boolean isCodecFailOnUnknownProperties() {
+        return codecFailOnUnknownProperties;
+    }
+
+    /**
+     * Largest text or binary message Jetty assembles before closing the connection
+     */
+    public int getLimitsMaxMessageSize() {
+        return limitsMaxMessageSize;
+    }
+
+    public int getLimitsMaxNestingDepth() {
+        return Math.max(2, limitsMaxNestingDepth);
+    }
+
+    /**
+     * Longest string value in a message, in chars
+     */
+    public int getLimitsMaxStringLength() {
+        return limitsMaxStringLength;
+    }
+
+    /**
+     * Most digits in a number value
+     */
+    public int getLimitsMaxNumberLength() {
+        return limitsMaxNumberLength;
+    }
+
+    /**
+     * Most fields in an object or elements in an array, counted while parsing
+     */
+    public int getLimitsMaxContainerEntries() {
+        return Math.max(1, limitsMaxContainerEntries);
+    }
+
+    /**
+     * Chunks a stream sender may send before the receiver grants credits
+     */
+    public int getStreamInitialCredits() {
+        return Math.max(1, streamInitialCredits);
+    }
+
+    /**
+     * Most credits a stream holds, bounding the chunks in flight per stream
+     */
+    public int getStreamMaxCredits() {
+        return Math.max(getStreamInitialCredits(), streamMaxCredits);
+    }
+
+    /**
+     * Milliseconds without chunks or credits after which a stream is cancelled
+     */
+    public long getStreamIdleTimeout() {
+        return Math.max(1, streamIdleTimeout);
+    }
+
+    /**
+     * Largest VNC update a source may send, in bytes
+     */
+    public int getVncMaxFrameSize() {
+        return vncMaxFrameSize;
+    }
+
+    /**
+     * Updates queued per viewer before it drops deltas and waits for a keyframe
+     */
+    public int getVncMaxPendingFrames() {
+        return Math.max(1, vncMaxPendingFrames);
+    }
+
+    /**
+     * Shortest time between keyframe requests to a source, in milliseconds
+     */
+    public long getVncKeyframeRequestInterval() {
+        return vncKeyframeRequestInterval;
+    }
+
+    /**
+     * How long a ticket from vnc.open_channel can be used, in milliseconds
+     */
+    public long getVncTicketTimeout() {
+        return vncTicketTimeout;
+    }
+
+    /**
+     * Whether JSON messages relayed between JSON clients are sent as received with only the id swapped
+     */
+    public boolean isRpcPassThrough() {
+        return rpcPassThrough;
+    }
+
+    /**
+     * How long a forwarded request may wait for its reply, in milliseconds
+     */
+    public long getRpcRequestTimeout() {
+        return rpcRequestTimeout;
+    }
+
+    public long getRpcTimeoutTick() {
+        return Math.max(1, rpcTimeoutTick);
+    }
+
+    public int getRpcTimeoutWheelSize() {
+        return rpcTimeoutWheelSize;
+    }
+
+    public LoadBalancingStrategy getSchedulerRoutingStrategy() {
+        return LoadBalancingStrategy.valueOf(schedulerRoutingStrategy.trim().toUpperCase());
+    }
+
+    /**
+     * Request param used as the key when scheduler routing uses CONSISTENT_HASH
+     */
+    public String getSchedulerRoutingHashKey() {
+        return schedulerRoutingHashKey;
+    }
+
+    /**
+     * Request params tried in order as the shard key for automation.* and vnc.* requests
+     */
+    public List<String> getServiceRoutingKeyParams() {
+        return serviceRoutingKeyParams;
+    }
+
+    /**
+     * Points per client on consistent-hash rings
+     */
+    public int getRoutingVirtualNodes() {
+        return routingVirtualNodes;
+    }
+}
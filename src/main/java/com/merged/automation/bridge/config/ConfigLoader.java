@@ -0,0 +1,83 @@
+package com.merged.automation.bridge.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * Fills the {@link Value} fields of config classes the server creates without
+ * a Spring context. Placeholders are resolved the way Spring would: system
+ * properties first, then environment variables, then application.yml, then
+ * the default in the annotation.
+ */
+public final class ConfigLoader {
+    private static final Logger logger = LoggerFactory.getLogger(ConfigLoader.class);
+
+    private static final String CONFIG_FILE = "application.yml";
+
+    private static volatile StandardEnvironment environment;
+
+    private ConfigLoader() {
+    }
+
+    /**
+     * Set every {@link Value} field of the target from the environment
+     *
+     * @return the target
+     */
+    public static <T> T bind(T target) {
+        StandardEnvironment env = getEnvironment();
+        ConversionService conversionService = DefaultConversionService.getSharedInstance();
+        for (Class<?> type = target.getClass(); type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                Value value = field.getAnnotation(Value.class);
+                if (value == null) {
+                    continue;
+                }
+                String resolved = env.resolveRequiredPlaceholders(value.value());
+                try {
+                    field.setAccessible(true);
+                    field.set(target, conversionService.convert(resolved,
+                        TypeDescriptor.valueOf(String.class), new TypeDescriptor(field)));
+                } catch (IllegalAccessException | RuntimeException e) {
+                    throw new IllegalStateException("Invalid value '" + resolved + "' for " + value.value(), e);
+                }
+            }
+        }
+        return target;
+    }
+
+    private static StandardEnvironment getEnvironment() {
+        StandardEnvironment env = environment;
+        if (env == null) {
+            synchronized (ConfigLoader.class) {
+                env = environment;
+                if (env == null) {
+                    env = new StandardEnvironment();
+                    ClassPathResource resource = new ClassPathResource(CONFIG_FILE);
+                    if (resource.exists()) {
+                        try {
+                            List<PropertySource<?>> sources = new YamlPropertySourceLoader().load(CONFIG_FILE, resource);
+                            sources.forEach(env.getPropertySources()::addLast);
+                        } catch (IOException e) {
+                            logger.warn("Failed to read {}: {}", CONFIG_FILE, e.getMessage());
+                        }
+                    }
+                    environment = env;
+                }
+            }
+        }
+        return env;
+    }
+}
@@ -0,0 +1,34 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Params of client.authenticate
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AuthenticateParams {
+    @JsonProperty("type")
+    private String type;
+    
+    @JsonProperty("name")
+    private String name;
+    
+    @JsonProperty("version")
+    private String version;
+    
+    @JsonProperty("token")
+    private String token;
+    
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    
+    public String getVersion() { return version; }
+    public void setVersion(String version) { this.version = version; }
+    
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+}
@@ -0,0 +1,23 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Params of requests addressing one automation, e.g. automation.get and automation.execute.
+ * Other params are left to the automation service.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AutomationParams {
+    @JsonProperty("automationId")
+    private String automationId;
+    
+    @JsonProperty("deviceId")
+    private String deviceId;
+    
+    public String getAutomationId() { return automationId; }
+    public void setAutomationId(String automationId) { this.automationId = automationId; }
+    
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+}
@@ -0,0 +1,28 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Params of client.set_batching; absent values mean the server maximum
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BatchingParams {
+    @JsonProperty("enabled")
+    private Boolean enabled;
+    
+    @JsonProperty("maxDelayMs")
+    private Double maxDelayMs;
+    
+    @JsonProperty("maxMessages")
+    private Integer maxMessages;
+    
+    public Boolean getEnabled() { return enabled; }
+    public void setEnabled(Boolean enabled) { this.enabled = enabled; }
+    
+    public Double getMaxDelayMs() { return maxDelayMs; }
+    public void setMaxDelayMs(Double maxDelayMs) { this.maxDelayMs = maxDelayMs; }
+    
+    public Integer getMaxMessages() { return maxMessages; }
+    public void setMaxMessages(Integer maxMessages) { this.maxMessages = maxMessages; }
+}
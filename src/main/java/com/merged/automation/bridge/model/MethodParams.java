@@ -0,0 +1,53 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.merged.automation.bridge.websocket.RpcCodec;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Param classes of the methods whose params the bridge inspects itself.
+ * Received params of these methods are bound straight into their class;
+ * all other methods keep generic map params.
+ */
+public final class MethodParams {
+    private static final Map<String, Class<?>> TYPES = Map.of(
+        "client.authenticate", AuthenticateParams.class,
+        "client.set_batching", BatchingParams.class,
+        "automation.get", AutomationParams.class,
+        "automation.execute", AutomationParams.class,
+        "vnc.open_channel", VncChannelParams.class,
+        "stream.chunk", StreamChunkParams.class
+    );
+    
+    private MethodParams() {
+    }
+    
+    /**
+     * @return the param class of the method, null if it has none
+     */
+    public static Class<?> typeFor(String method) {
+        return method != null ? TYPES.get(method) : null;
+    }
+    
+    public static Collection<Class<?>> types() {
+        return TYPES.values();
+    }
+    
+    /**
+     * Bind params that were set as a map rather than received. They never went
+     * through a wire format, so no read limits apply; received params are bound
+     * by the codec they arrived in.
+     */
+    static <T> T convert(Map<String, Object> params, Class<T> type) {
+        return params != null ? Converter.CODEC.convertParams(params, type) : null;
+    }
+    
+    // Created on first use, since most messages with params are received
+    private static final class Converter {
+        static final RpcCodec CODEC = new RpcCodec(new JsonFactory(), false, false, 
+            StreamReadConstraints.defaults(), Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,136 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.merged.automation.bridge.websocket.RpcCodec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The JSON frame a message was read from, together with the position of its
+ * id value. Lets a forwarded message be relayed byte for byte with only the
+ * id swapped, instead of being re-encoded from objects.
+ */
+public final class RawFrame {
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private final RpcCodec codec;
+    // Exactly one of text and bytes is set
+    private final String text;
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    // Span of the id value within the frame, -1 if the frame has no id
+    private final int idStart;
+    private final int idEnd;
+
+    private RawFrame(RpcCodec codec, String text, byte[] bytes, int offset, int length, int idStart, int idEnd) {
+        this.codec = codec;
+        this.text = text;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.idStart = idStart;
+        this.idEnd = idEnd;
+    }
+
+    /**
+     * @param idStart start of the id value in chars, -1 if there is none
+     */
+    public static RawFrame ofText(RpcCodec codec, String text, int idStart, int idEnd) {
+        return new RawFrame(codec, text, null, 0, text.length(), idStart, idEnd);
+    }
+
+    /**
+     * @param idStart start of the id value relative to offset, -1 if there is none
+     */
+    public static RawFrame ofBytes(RpcCodec codec, byte[] bytes, int offset, int length, int idStart, int idEnd) {
+        return new RawFrame(codec, null, bytes, offset, length, idStart, idEnd);
+    }
+
+    /**
+     * Whether the id can be replaced in place
+     */
+    public boolean hasId() {
+        return idStart >= 0;
+    }
+
+    /**
+     * Write the frame as UTF-8 with the id value replaced, whatever its type was.
+     * Ids are strings in {@link RpcMessage}, numbers having been read as their
+     * text, so the id is written as a string, or as null if it is null, just as
+     * the message writer would write it.
+     */
+    public void writeWithId(String id, OutputStream out) throws IOException {
+        if (!hasId()) {
+            throw new IllegalStateException("Frame has no id to replace");
+        }
+
+        if (text != null) {
+            out.write(text.substring(0, idStart).getBytes(StandardCharsets.UTF_8));
+        } else {
+            out.write(bytes, offset, idStart);
+        }
+        if (id == null) {
+            out.write(NULL);
+        } else {
+            out.write('"');
+            out.write(JsonStringEncoder.getInstance().quoteAsUTF8(id));
+            out.write('"');
+        }
+        if (text != null) {
+            out.write(text.substring(idEnd).getBytes(StandardCharsets.UTF_8));
+        } else {
+            out.write(bytes, offset + idEnd, length - idEnd);
+        }
+    }
+
+    /**
+     * @return the result, or null if the frame has none
+     */
+    public Object readResult() {
+        return readField("result", codec::readValue);
+    }
+
+    /**
+     * @return the error, or null if the frame has none
+     */
+    public RpcMessage.RpcError readError() {
+        return readField("error", codec::readError);
+    }
+
+    /**
+     * Read one top-level field of the frame
+     *
+     * @return the value, or null if the field is absent
+     */
+    private <T> T readField(String name, FieldReader<T> reader) {
+        try (JsonParser parser = text != null
+                ? codec.getFactory().createParser(text)
+                : codec.getFactory().createParser(bytes, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (name.equals(field)) {
+                    return reader.read(parser);
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + name, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface FieldReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+}
@@ -0,0 +1,121 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.merged.automation.bridge.websocket.RpcCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Message params kept in their wire form until someone needs them as objects.
+ * JSON params are a slice of the original frame; params of binary formats are
+ * kept as a token buffer, since those parsers report no usable byte offsets.
+ */
+public final class RawParams {
+    private final RpcCodec codec;
+    private final int size;
+    // Exactly one of the following is set
+    private final String json;
+    private final byte[] bytes;
+    private final int offset;
+    private final TokenBuffer tokens;
+
+    private RawParams(RpcCodec codec, int size, String json, byte[] bytes, int offset, TokenBuffer tokens) {
+        this.codec = codec;
+        this.size = size;
+        this.json = json;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Params object taken from a text frame
+     */
+    public static RawParams ofJson(RpcCodec codec, String json) {
+        return new RawParams(codec, json.length(), json, null, 0, null);
+    }
+
+    /**
+     * Params object taken from JSON in a byte array, without copying it
+     */
+    public static RawParams ofJson(RpcCodec codec, byte[] bytes, int offset, int length) {
+        return new RawParams(codec, length, null, bytes, offset, null);
+    }
+
+    /**
+     * Params object of a binary format, size being its approximate encoded length
+     */
+    public static RawParams ofTokens(RpcCodec codec, TokenBuffer tokens, int size) {
+        return new RawParams(codec, size, null, null, 0, tokens);
+    }
+
+    /**
+     * Encoded size, in bytes or chars
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Deserialize the params object
+     */
+    public Map<String, Object> bind() {
+        try (JsonParser parser = createParser()) {
+            return codec.readParams(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to bind params", e);
+        }
+    }
+
+    /**
+     * Deserialize the params object into a param class, without building a map first
+     */
+    public <T> T bind(Class<T> type) {
+        try (JsonParser parser = createParser()) {
+            return codec.readParams(parser, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to bind params as " + type.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Look up one top-level param without binding the others
+     *
+     * @return the value, or null if the param is absent or null
+     */
+    public Object get(String name) {
+        try (JsonParser parser = createParser()) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!name.equals(field)) {
+                    parser.skipChildren();
+                } else if (value == JsonToken.VALUE_STRING) {
+                    return parser.getText();
+                } else {
+                    return codec.readValue(parser);
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read param " + name, e);
+        }
+    }
+
+    private JsonParser createParser() throws IOException {
+        if (json != null) {
+            return codec.getFactory().createParser(json);
+        }
+        if (bytes != null) {
+            return codec.getFactory().createParser(bytes, offset, size);
+        }
+        return tokens.asParser(codec.getMapper());
+    }
+}
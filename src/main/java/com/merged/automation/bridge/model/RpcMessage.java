@@ -1,5 +1,6 @@
 package com.merged.automation.bridge.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Map;
 
@@ -19,6 +20,18 @@ public class RpcMessage {
     @JsonProperty("params")
     private Map<String, Object> params;
     
+    // Undecoded params of a received message, bound on first access
+    @JsonIgnore
+    private RawParams rawParams;
+    
+    // Params bound into their method's param class, see MethodParams
+    @JsonIgnore
+    private Object typedParams;
+    
+    // Encoded size of received params, -1 if they were not received
+    @JsonIgnore
+    private int paramsSize = -1;
+    
     @JsonProperty("result")
     private Object result;
     
@@ -28,6 +41,14 @@ public class RpcMessage {
     @JsonProperty("timestamp")
     private long timestamp;
     
+    // Frame the message was read from; dropped once anything but the id changes
+    @JsonIgnore
+    private RawFrame rawFrame;
+    
+    // result and error not read from rawFrame yet
+    @JsonIgnore
+    private boolean bodyDeferred;
+    
     public RpcMessage() {
         this.timestamp = System.currentTimeMillis();
     }
@@ -43,22 +64,120 @@ public class RpcMessage {
     public void setId(String id) { this.id = id; }
     
     public MessageType getType() { return type; }
-    public void setType(MessageType type) { this.type = type; }
+    public void setType(MessageType type) { detachFrame(); this.type = type; }
     
     public String getMethod() { return method; }
-    public void setMethod(String method) { this.method = method; }
+    public void setMethod(String method) { detachFrame(); this.method = method; }
+    
+    /**
+     * Params, binding them first if the message was received with raw params.
+     * Not thread-safe; a message is handled by one thread at a time.
+     * Changes to the returned map are not seen by relaying, use setParams instead.
+     */
+    public Map<String, Object> getParams() {
+        if (rawParams != null) {
+            params = rawParams.bind();
+            rawParams = null;
+        }
+        return params;
+    }
     
-    public Map<String, Object> getParams() { return params; }
-    public void setParams(Map<String, Object> params) { this.params = params; }
+    public void setParams(Map<String, Object> params) {
+        detachFrame();
+        this.params = params;
+        this.rawParams = null;
+        this.typedParams = null;
+        this.paramsSize = -1;
+    }
     
-    public Object getResult() { return result; }
-    public void setResult(Object result) { this.result = result; }
+    /**
+     * Params as the given param class. Received params are bound straight from
+     * their wire form and stay raw for relaying; the result is cached.
+     *
+     * @return null if there are no params
+     * @throws RuntimeException if the params do not fit the class
+     */
+    public <T> T getParams(Class<T> type) {
+        if (type.isInstance(typedParams)) {
+            return type.cast(typedParams);
+        }
+        T bound = rawParams != null ? rawParams.bind(type) : MethodParams.convert(params, type);
+        typedParams = bound;
+        return bound;
+    }
     
-    public RpcError getError() { return error; }
-    public void setError(RpcError error) { this.error = error; }
+    /**
+     * Encoded size of the params as received, in bytes or chars; -1 if they were set locally
+     */
+    @JsonIgnore
+    public int getParamsSize() { return paramsSize; }
+    
+    /**
+     * Single param, read without binding the rest if params are still raw
+     */
+    public Object getParam(String name) {
+        if (rawParams != null) {
+            return rawParams.get(name);
+        }
+        return params != null ? params.get(name) : null;
+    }
+    
+    /**
+     * Raw params of a received message, null once bound or if there are none
+     */
+    @JsonIgnore
+    public RawParams getRawParams() { return rawParams; }
+    
+    @JsonIgnore
+    public void setRawParams(RawParams rawParams) {
+        detachFrame();
+        this.rawParams = rawParams;
+        this.params = null;
+        this.typedParams = null;
+        this.paramsSize = rawParams != null ? rawParams.size() : -1;
+    }
+    
+    public Object getResult() { bindBody(); return result; }
+    public void setResult(Object result) { detachFrame(); this.result = result; }
+    
+    public RpcError getError() { bindBody(); return error; }
+    public void setError(RpcError error) { detachFrame(); this.error = error; }
     
     public long getTimestamp() { return timestamp; }
-    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+    public void setTimestamp(long timestamp) { detachFrame(); this.timestamp = timestamp; }
+    
+    /**
+     * JSON frame this message was read from, null if it was built or changed since.
+     * Only the id may differ from the frame; callers relaying it must swap it in.
+     */
+    @JsonIgnore
+    public RawFrame getRawFrame() { return rawFrame; }
+    
+    /**
+     * Attach the frame the message was read from
+     *
+     * @param bodyDeferred result and error were skipped and are read from the frame on first access
+     */
+    @JsonIgnore
+    public void setRawFrame(RawFrame rawFrame, boolean bodyDeferred) {
+        this.rawFrame = rawFrame;
+        this.bodyDeferred = bodyDeferred;
+    }
+    
+    private void bindBody() {
+        if (bodyDeferred) {
+            bodyDeferred = false;
+            result = rawFrame.readResult();
+            error = rawFrame.readError();
+        }
+    }
+    
+    private void detachFrame() {
+        if (rawFrame != null) {
+            bindBody();
+            rawFrame = null;
+        }
+    }
     
     // Enumeration for message types
     public enum MessageType {
@@ -113,5 +232,6 @@ public class RpcMessage {
         public static final int UNAUTHORIZED = -32004;
         public static final int RATE_LIMIT_EXCEEDED = -32005;
         public static final int IP_BLOCKED = -32006;
+        public static final int TIMEOUT = -32007;
     }
 }
\ No newline at end of file
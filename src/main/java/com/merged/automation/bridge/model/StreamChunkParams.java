@@ -0,0 +1,23 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Params of stream.chunk the relay looks at. The data is skipped when
+ * binding and relayed as received.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StreamChunkParams {
+    @JsonProperty("seq")
+    private Long seq;
+    
+    @JsonProperty("final")
+    private boolean last;
+    
+    public Long getSeq() { return seq; }
+    public void setSeq(Long seq) { this.seq = seq; }
+    
+    public boolean isLast() { return last; }
+    public void setLast(boolean last) { this.last = last; }
+}
@@ -0,0 +1,16 @@
+package com.merged.automation.bridge.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Params of vnc.open_channel
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VncChannelParams {
+    @JsonProperty("deviceId")
+    private String deviceId;
+    
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+}
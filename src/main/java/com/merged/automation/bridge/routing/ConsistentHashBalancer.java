@@ -0,0 +1,61 @@
+package com.merged.automation.bridge.routing;
+
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.util.List;
+
+/**
+ * Sends all requests with the same key param (e.g. automationId) to the same
+ * client while the candidate set is stable. Requests without the key fall
+ * back to round-robin.
+ */
+public class ConsistentHashBalancer implements LoadBalancer {
+    private final String keyParam;
+    private final ConsistentHashRing ring;
+    private final LoadBalancer fallback = new RoundRobinBalancer();
+    // Candidate list the ring was last synced with, compared by identity: ClientManager
+    // hands out the same immutable snapshot until membership changes
+    private volatile List<String> syncedSnapshot = List.of();
+    // Members of that list, guarded by the ring
+    private List<String> syncedMembers = List.of();
+
+    public ConsistentHashBalancer(String keyParam, int virtualNodes) {
+        this.keyParam = keyParam;
+        this.ring = new ConsistentHashRing(virtualNodes);
+    }
+
+    @Override
+    public String select(List<String> candidates, RpcMessage request) {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        String key = extractKey(request);
+        if (key == null) {
+            return fallback.select(candidates, request);
+        }
+
+        syncRing(candidates);
+        String selected = ring.get(key);
+        return selected != null ? selected : fallback.select(candidates, request);
+    }
+
+    private String extractKey(RpcMessage request) {
+        Object value = request.getParam(keyParam);
+        return value != null ? value.toString() : null;
+    }
+
+    private void syncRing(List<String> candidates) {
+        if (candidates == syncedSnapshot) {
+            return;
+        }
+        synchronized (ring) {
+            // A new snapshot may still hold the same members
+            if (!candidates.equals(syncedMembers)) {
+                ring.retainExactly(candidates);
+                syncedMembers = List.copyOf(candidates);
+            }
+            syncedSnapshot = candidates;
+        }
+    }
+}
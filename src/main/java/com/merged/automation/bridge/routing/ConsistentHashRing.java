@@ -0,0 +1,137 @@
+package com.merged.automation.bridge.routing;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Consistent-hash ring with virtual nodes.
+ * Adding or removing a node only moves the keys that hashed to that node's
+ * points. Lookups read an immutable snapshot and never lock.
+ */
+public class ConsistentHashRing {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int virtualNodes;
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new String[0]);
+
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+    }
+
+    /**
+     * @return the node owning the key, or null if the ring is empty
+     */
+    public String get(String key) {
+        Snapshot current = snapshot;
+        if (current.points.length == 0) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(current.points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == current.points.length) {
+                index = 0;
+            }
+        }
+        return current.owners[index];
+    }
+
+    public synchronized void add(String node) {
+        if (contains(node)) {
+            return;
+        }
+
+        Snapshot current = snapshot;
+        int size = current.points.length;
+        long[] points = Arrays.copyOf(current.points, size + virtualNodes);
+        String[] owners = Arrays.copyOf(current.owners, size + virtualNodes);
+        for (int i = 0; i < virtualNodes; i++) {
+            points[size + i] = hash(node + "#" + i);
+            owners[size + i] = node;
+        }
+        snapshot = sorted(points, owners);
+    }
+
+    public synchronized void remove(String node) {
+        Snapshot current = snapshot;
+        int kept = 0;
+        long[] points = new long[current.points.length];
+        String[] owners = new String[current.owners.length];
+        for (int i = 0; i < current.points.length; i++) {
+            if (!current.owners[i].equals(node)) {
+                points[kept] = current.points[i];
+                owners[kept] = current.owners[i];
+                kept++;
+            }
+        }
+        if (kept != current.points.length) {
+            snapshot = new Snapshot(Arrays.copyOf(points, kept), Arrays.copyOf(owners, kept));
+        }
+    }
+
+    /**
+     * Make the ring contain exactly the given nodes, touching only the difference
+     */
+    public synchronized void retainExactly(Collection<String> nodes) {
+        Set<String> wanted = new HashSet<>(nodes);
+        for (String node : getNodes()) {
+            if (!wanted.remove(node)) {
+                remove(node);
+            }
+        }
+        wanted.forEach(this::add);
+    }
+
+    public boolean contains(String node) {
+        for (String owner : snapshot.owners) {
+            if (owner.equals(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<String> getNodes() {
+        Set<String> nodes = new HashSet<>(Arrays.asList(snapshot.owners));
+        return new ArrayList<>(nodes);
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static Snapshot sorted(long[] points, String[] owners) {
+        Integer[] order = new Integer[points.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(points[a], points[b]));
+
+        long[] sortedPoints = new long[points.length];
+        String[] sortedOwners = new String[owners.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedPoints[i] = points[order[i]];
+            sortedOwners[i] = owners[order[i]];
+        }
+        return new Snapshot(sortedPoints, sortedOwners);
+    }
+
+    private static class Snapshot {
+        private final long[] points;
+        private final String[] owners;
+
+        Snapshot(long[] points, String[] owners) {
+            this.points = points;
+            this.owners = owners;
+        }
+    }
+}
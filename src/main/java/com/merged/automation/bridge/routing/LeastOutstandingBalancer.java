@@ -0,0 +1,41 @@
+package com.merged.automation.bridge.routing;
+
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Picks the candidate with the fewest requests awaiting a reply.
+ * The scan starts at a rotating offset so ties do not all land on the first client.
+ */
+public class LeastOutstandingBalancer implements LoadBalancer {
+    private final ToIntFunction<String> outstanding;
+    private final AtomicInteger offset = new AtomicInteger();
+
+    public LeastOutstandingBalancer(ToIntFunction<String> outstanding) {
+        this.outstanding = outstanding;
+    }
+
+    @Override
+    public String select(List<String> candidates, RpcMessage request) {
+        int size = candidates.size();
+        if (size == 0) {
+            return null;
+        }
+
+        int start = Math.floorMod(offset.getAndIncrement(), size);
+        String best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            String candidate = candidates.get((start + i) % size);
+            int count = outstanding.applyAsInt(candidate);
+            if (count < bestCount) {
+                best = candidate;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+}
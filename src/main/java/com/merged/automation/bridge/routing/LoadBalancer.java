@@ -0,0 +1,18 @@
+package com.merged.automation.bridge.routing;
+
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.util.List;
+
+/**
+ * Picks the client that should receive a routed request
+ */
+public interface LoadBalancer {
+
+    /**
+     * @param candidates connected clients able to serve the request
+     * @param request the request being routed
+     * @return the selected client id, or null if there are no candidates
+     */
+    String select(List<String> candidates, RpcMessage request);
+}
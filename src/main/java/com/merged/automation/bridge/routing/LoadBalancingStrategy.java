@@ -0,0 +1,32 @@
+package com.merged.automation.bridge.routing;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Available load-balancing strategies for routed requests
+ */
+public enum LoadBalancingStrategy {
+    ROUND_ROBIN,
+    LEAST_OUTSTANDING,
+    POWER_OF_TWO_CHOICES,
+    CONSISTENT_HASH;
+
+    /**
+     * @param outstanding number of requests awaiting a reply from a client
+     * @param hashKeyParam request param used as the key for CONSISTENT_HASH
+     * @param virtualNodes ring points per client for CONSISTENT_HASH
+     */
+    public LoadBalancer create(ToIntFunction<String> outstanding, String hashKeyParam, int virtualNodes) {
+        switch (this) {
+            case LEAST_OUTSTANDING:
+                return new LeastOutstandingBalancer(outstanding);
+            case POWER_OF_TWO_CHOICES:
+                return new PowerOfTwoChoicesBalancer(outstanding);
+            case CONSISTENT_HASH:
+                return new ConsistentHashBalancer(hashKeyParam, virtualNodes);
+            case ROUND_ROBIN:
+            default:
+                return new RoundRobinBalancer();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.merged.automation.bridge.routing;
+
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+
+/**
+ * Samples two random candidates and picks the one with fewer outstanding
+ * requests. Close to least-outstanding balance at constant cost.
+ */
+public class PowerOfTwoChoicesBalancer implements LoadBalancer {
+    private final ToIntFunction<String> outstanding;
+
+    public PowerOfTwoChoicesBalancer(ToIntFunction<String> outstanding) {
+        this.outstanding = outstanding;
+    }
+
+    @Override
+    public String select(List<String> candidates, RpcMessage request) {
+        int size = candidates.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return candidates.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        String a = candidates.get(first);
+        String b = candidates.get(second);
+        return outstanding.applyAsInt(a) <= outstanding.applyAsInt(b) ? a : b;
+    }
+}
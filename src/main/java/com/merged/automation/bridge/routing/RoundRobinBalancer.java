@@ -0,0 +1,21 @@
+package com.merged.automation.bridge.routing;
+
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cycles through the candidates in order
+ */
+public class RoundRobinBalancer implements LoadBalancer {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public String select(List<String> candidates, RpcMessage request) {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+    }
+}
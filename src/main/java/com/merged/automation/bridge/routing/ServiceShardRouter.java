@@ -0,0 +1,106 @@
+package com.merged.automation.bridge.routing;
+
+import com.merged.automation.bridge.model.ClientInfo;
+import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.service.ClientManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Shards automation.* and vnc.* requests across AUTOMATION_SERVICE clients.
+ * Requests are keyed by the first configured param present (device or
+ * automation id) on a consistent-hash ring, so each device keeps hitting the
+ * same service and only the keys of a joining or leaving service move.
+ * Membership follows the {@link ClientManager.ClientManagerListener} events.
+ */
+public class ServiceShardRouter implements ClientManager.ClientManagerListener {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceShardRouter.class);
+
+    private final List<String> keyParams;
+    private final ConsistentHashRing ring;
+    private final LoadBalancer fallback = new RoundRobinBalancer();
+    private volatile List<String> members = List.of();
+
+    public ServiceShardRouter(List<String> keyParams, int virtualNodes) {
+        this.keyParams = List.copyOf(keyParams);
+        this.ring = new ConsistentHashRing(virtualNodes);
+    }
+
+    /**
+     * @return the service client that owns this request, or null if none is connected
+     */
+    public String route(RpcMessage request) {
+        String key = extractKey(request);
+        if (key != null) {
+            String owner = ring.get(key);
+            if (owner != null) {
+                return owner;
+            }
+        }
+        // Unkeyed requests can go to any service
+        return fallback.select(members, request);
+    }
+
+    /**
+     * @return the service client that owns this key, or null if none is connected
+     */
+    public String getOwner(String key) {
+        return ring.get(key);
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    @Override
+    public void onClientConnected(String clientId, ClientInfo clientInfo) {
+        updateMembership(clientId, clientInfo);
+    }
+
+    @Override
+    public void onClientUpdated(String clientId, ClientInfo clientInfo) {
+        updateMembership(clientId, clientInfo);
+    }
+
+    @Override
+    public void onClientDisconnected(String clientId, ClientInfo clientInfo) {
+        leave(clientId);
+    }
+
+    private void updateMembership(String clientId, ClientInfo clientInfo) {
+        if (clientInfo.getType() == ClientInfo.ClientType.AUTOMATION_SERVICE
+                && clientInfo.getStatus() == ClientInfo.ClientStatus.CONNECTED) {
+            join(clientId);
+        } else {
+            leave(clientId);
+        }
+    }
+
+    private synchronized void join(String clientId) {
+        if (!ring.contains(clientId)) {
+            ring.add(clientId);
+            members = List.copyOf(ring.getNodes());
+            logger.info("Automation service {} joined shard ring ({} services)", clientId, members.size());
+        }
+    }
+
+    private synchronized void leave(String clientId) {
+        if (ring.contains(clientId)) {
+            ring.remove(clientId);
+            members = List.copyOf(ring.getNodes());
+            logger.info("Automation service {} left shard ring ({} services)", clientId, members.size());
+        }
+    }
+
+    private String extractKey(RpcMessage request) {
+        for (String keyParam : keyParams) {
+            Object value = request.getParam(keyParam);
+            if (value != null) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+}
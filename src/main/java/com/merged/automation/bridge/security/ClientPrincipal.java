@@ -0,0 +1,49 @@
+package com.merged.automation.bridge.security;
+
+/**
+ * Identity verified from the token presented in a WebSocket upgrade request.
+ * Bound to the connection for its lifetime, so checking a message against it
+ * needs no lookup.
+ */
+public final class ClientPrincipal {
+    private final String subject;
+    private final String clientType;
+    private final String remoteIp;
+    private final long expiresAt;
+    
+    ClientPrincipal(String subject, String clientType, String remoteIp, long expiresAt) {
+        this.subject = subject;
+        this.clientType = clientType;
+        this.remoteIp = remoteIp;
+        this.expiresAt = expiresAt;
+    }
+    
+    /**
+     * Token subject, the client name the token was issued to
+     */
+    public String getSubject() {
+        return subject;
+    }
+    
+    /**
+     * Client type claim, e.g. automation_service
+     */
+    public String getClientType() {
+        return clientType;
+    }
+    
+    public String getRemoteIp() {
+        return remoteIp;
+    }
+    
+    /**
+     * Token expiry in epoch milliseconds, Long.MAX_VALUE if the token has none
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+}
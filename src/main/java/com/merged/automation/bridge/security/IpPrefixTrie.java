@@ -0,0 +1,230 @@
+package com.merged.automation.bridge.security;
+
+import java.util.Arrays;
+
+/**
+ * Binary trie of IPv4 and IPv6 network prefixes. An address is looked up by
+ * walking its bits from the top until a prefix ends or the path does, so a
+ * lookup takes at most 32 or 128 steps however many prefixes there are.
+ * Addresses are read straight from their text form and nodes live in flat
+ * arrays, so lookups do not allocate. Filled once, then only read.
+ */
+final class IpPrefixTrie {
+    private static final int NONE = 0;
+    // Results of a walk that decided the lookup; any other result is the node reached
+    private static final int MATCH = -1;
+    private static final int MISS = -2;
+
+    // Node n has children at [2n] and [2n + 1]; node 0 is unused so 0 can mean "no child"
+    private int[] children = new int[64];
+    private boolean[] terminal = new boolean[32];
+    private int nodes = 1;
+    private final int rootV4 = newNode();
+    private final int rootV6 = newNode();
+
+    /**
+     * Add a network given as address bytes, 4 for IPv4 or 16 for IPv6, and prefix length in bits
+     */
+    void add(byte[] address, int prefixLength) {
+        int node = address.length == 4 ? rootV4 : rootV6;
+        for (int bit = 0; bit < prefixLength && !terminal[node]; bit++) {
+            int b = (address[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+            int slot = 2 * node + b;
+            if (children[slot] == NONE) {
+                int child = newNode();
+                children[slot] = child;
+            }
+            node = children[slot];
+        }
+        // A shorter prefix already covers a longer one
+        terminal[node] = true;
+    }
+
+    /**
+     * Whether the address, in IPv4 dotted or IPv6 colon text form, lies in one of the networks
+     */
+    boolean contains(String address) {
+        int end = address.indexOf('%');
+        if (end < 0) {
+            end = address.length();
+        }
+        if (address.indexOf(':') < 0) {
+            long ipv4 = parseIpv4(address, 0, end);
+            return ipv4 >= 0 && walk(rootV4, ipv4, 32) == MATCH;
+        }
+        return containsIpv6(address, end);
+    }
+
+    /**
+     * Follow the top bits of value from node
+     *
+     * @return MATCH or MISS if decided, otherwise the node reached
+     */
+    private int walk(int node, long value, int bits) {
+        if (terminal[node]) {
+            return MATCH;
+        }
+        for (int shift = bits - 1; shift >= 0; shift--) {
+            node = children[2 * node + (int) ((value >>> shift) & 1)];
+            if (node == NONE) {
+                return MISS;
+            }
+            if (terminal[node]) {
+                return MATCH;
+            }
+        }
+        return node;
+    }
+
+    private boolean containsIpv6(String address, int end) {
+        int gap = address.indexOf("::");
+        if (gap >= end) {
+            gap = -1;
+        }
+        int headEnd = gap < 0 ? end : gap;
+        // A dotted IPv4 part can only come last
+        if (gap >= 0 && address.lastIndexOf('.', gap) >= 0) {
+            return false;
+        }
+
+        // Groups written out before and after the "::"
+        int head = countGroups(address, 0, headEnd);
+        int tail = gap < 0 ? 0 : countGroups(address, gap + 2, end);
+        if (head < 0 || tail < 0 || (gap < 0 ? head != 8 : head + tail > 7)) {
+            return false;
+        }
+
+        int node = walkGroups(rootV6, address, 0, headEnd);
+        if (gap >= 0 && node != MISS) {
+            // Zero groups the "::" stands for
+            for (int zeros = 8 - head - tail; zeros > 0 && node >= 0; zeros--) {
+                node = walk(node, 0, 16);
+            }
+            // Read even after a match, so a malformed tail still fails
+            node = walkGroups(node, address, gap + 2, end);
+        }
+        return node == MATCH;
+    }
+
+    /**
+     * Follow the colon separated groups in address[from, to), a trailing dotted IPv4 being the last two.
+     * Every group is parsed even once the lookup is decided.
+     *
+     * @param node node to start from, or MATCH if a prefix already matched
+     * @return as {@link #walk}, MISS if malformed
+     */
+    private int walkGroups(int node, String address, int from, int to) {
+        if (from == to) {
+            return node;
+        }
+        int pos = from;
+        while (true) {
+            int next = nextSeparator(address, pos, to);
+            if (next < to && address.charAt(next) == '.') {
+                long ipv4 = parseIpv4(address, pos, to);
+                if (ipv4 < 0) {
+                    return MISS;
+                }
+                return node >= 0 ? walk(node, ipv4, 32) : node;
+            }
+            int value = parseHex(address, pos, next);
+            if (value < 0) {
+                return MISS;
+            }
+            if (node >= 0) {
+                node = walk(node, value, 16);
+            }
+            if (next == to) {
+                return node;
+            }
+            pos = next + 1;
+        }
+    }
+
+    /**
+     * @return number of 16-bit groups in address[from, to), -1 if malformed
+     */
+    private static int countGroups(String address, int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        int groups = 1;
+        for (int i = from; i < to; i++) {
+            char c = address.charAt(i);
+            if (c == ':') {
+                groups++;
+            } else if (c == '.') {
+                // The dotted part is one field but two groups
+                return address.lastIndexOf(':', to - 1) < i ? groups + 1 : -1;
+            }
+        }
+        return groups;
+    }
+
+    private static int nextSeparator(String address, int from, int end) {
+        for (int i = from; i < end; i++) {
+            char c = address.charAt(i);
+            if (c == ':' || c == '.') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the value of 1 to 4 hex digits, -1 if malformed
+     */
+    private static int parseHex(String address, int from, int to) {
+        if (to - from < 1 || to - from > 4) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the address as an unsigned 32-bit value, -1 if address[from, to) is not a dotted quad
+     */
+    private static long parseIpv4(String address, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = from; i <= to; i++) {
+            char c = i < to ? address.charAt(i) : '.';
+            if (c == '.') {
+                if (octet < 0 || ++octets > 4) {
+                    return -1;
+                }
+                value = (value << 8) | octet;
+                octet = -1;
+            } else if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? value : -1;
+    }
+
+    private int newNode() {
+        if (nodes == terminal.length) {
+            terminal = Arrays.copyOf(terminal, nodes * 2);
+            children = Arrays.copyOf(children, nodes * 4);
+        }
+        return nodes++;
+    }
+
+    int size() {
+        return nodes - 1;
+    }
+}
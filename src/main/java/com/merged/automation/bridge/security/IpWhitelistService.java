@@ -1,5 +1,7 @@
 package com.merged.automation.bridge.security;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,125 +10,195 @@ import org.springframework.stereotype.Service;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
+/**
+ * Checks remote addresses against the allowed IPs. The rules are compiled
+ * once into an {@link IpPrefixTrie}, so a check costs the same for a handful
+ * of rules as for thousands and never allocates or touches DNS. Hostname
+ * rules are resolved in the background and the trie is rebuilt when they
+ * are; until the first resolution they match nothing. The rules are compiled
+ * and resolution starts in {@link #init()}, once the config is injected.
+ */
 @Service
 public class IpWhitelistService {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(IpWhitelistService.class);
-    
+
+    private static final long HOSTNAME_REFRESH_MINUTES = 5;
+
     @Autowired
     private SecurityConfig securityConfig;
-    
+
     private final Pattern IP_PATTERN = Pattern.compile(
         "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$"
     );
-    
-    private final Pattern CIDR_PATTERN = Pattern.compile(
-        "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)/([0-9]|[1-2][0-9]|3[0-2])$"
-    );
-    
+
+    private final Pattern IPV6_PATTERN = Pattern.compile("^[0-9a-fA-F:.]*:[0-9a-fA-F:.]*$");
+
+    private volatile Rules rules;
+    private ScheduledExecutorService resolver;
+
+    /**
+     * Compile the rules and start resolving hostname rules
+     */
+    @PostConstruct
+    public synchronized void init() {
+        if (rules != null) {
+            return;
+        }
+        Rules compiled = compile(List.of());
+        rules = compiled;
+        startResolver(compiled);
+    }
+
+    /**
+     * Stop resolving hostname rules
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (resolver != null) {
+            resolver.shutdownNow();
+            resolver = null;
+        }
+    }
+
     public boolean isIpAllowed(String remoteAddress) {
-        Set<String> allowedIps = securityConfig.getAllowedIps();
-        
+        Rules current = getRules();
+
+        // Servlet requests give IPv6 peers as [addr]
+        if (remoteAddress.length() > 2 && remoteAddress.startsWith("[") && remoteAddress.endsWith("]")) {
+            remoteAddress = remoteAddress.substring(1, remoteAddress.length() - 1);
+        }
+
         // If no IP restrictions configured, allow all (not recommended for production)
-        if (allowedIps.isEmpty()) {
-            logger.warn("No IP whitelist configured. All IPs are allowed!");
+        if (current.allowAll) {
             return true;
         }
-        
+
         // Always allow localhost
         if (isLocalhost(remoteAddress)) {
             return true;
         }
-        
-        try {
-            InetAddress clientAddress = InetAddress.getByName(remoteAddress);
-            
-            for (String allowedIp : allowedIps) {
-                if (matchesIpRule(clientAddress, allowedIp.trim())) {
-                    logger.debug("IP {} allowed by rule: {}", remoteAddress, allowedIp);
-                    return true;
-                }
-            }
-            
-            logger.warn("IP {} not in whitelist", remoteAddress);
-            return false;
-            
-        } catch (UnknownHostException e) {
-            logger.error("Invalid IP address: {}", remoteAddress);
-            return false;
+
+        if (current.trie.contains(remoteAddress)) {
+            return true;
         }
+
+        logger.warn("IP {} not in whitelist", remoteAddress);
+        return false;
     }
-    
+
     public boolean isIpAllowed(InetSocketAddress remoteAddress) {
         return isIpAllowed(remoteAddress.getAddress().getHostAddress());
     }
-    
+
     private boolean isLocalhost(String ip) {
-        return "127.0.0.1".equals(ip) || 
-               "::1".equals(ip) || 
+        return "127.0.0.1".equals(ip) ||
+               "::1".equals(ip) ||
                "localhost".equals(ip) ||
                "0:0:0:0:0:0:0:1".equals(ip);
     }
-    
-    private boolean matchesIpRule(InetAddress clientAddress, String rule) throws UnknownHostException {
-        if (rule.equals("*")) {
-            return true;
+
+    private Rules getRules() {
+        Rules current = rules;
+        if (current == null) {
+            // Created without a container calling init()
+            init();
+            current = rules;
         }
-        
-        // Direct IP match
-        if (IP_PATTERN.matcher(rule).matches()) {
-            return clientAddress.equals(InetAddress.getByName(rule));
+        return current;
+    }
+
+    /**
+     * Compile the configured rules, adding the given addresses resolved from hostname rules
+     */
+    private Rules compile(List<InetAddress> resolved) {
+        Set<String> allowedIps = securityConfig.getAllowedIps();
+        if (allowedIps.isEmpty()) {
+            logger.warn("No IP whitelist configured. All IPs are allowed!");
+            return new Rules(true, new IpPrefixTrie(), List.of());
         }
-        
-        // CIDR notation
-        if (CIDR_PATTERN.matcher(rule).matches()) {
-            return matchesCidr(clientAddress, rule);
+
+        IpPrefixTrie trie = new IpPrefixTrie();
+        List<String> hostnames = new ArrayList<>();
+        boolean allowAll = false;
+        for (String allowedIp : allowedIps) {
+            String rule = allowedIp.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            if (rule.equals("*")) {
+                allowAll = true;
+                continue;
+            }
+
+            int slash = rule.indexOf('/');
+            String address = slash < 0 ? rule : rule.substring(0, slash);
+            if (!IP_PATTERN.matcher(address).matches() && !IPV6_PATTERN.matcher(address).matches()) {
+                hostnames.add(rule);
+                continue;
+            }
+
+            try {
+                // A literal address never goes to DNS
+                byte[] network = InetAddress.getByName(address).getAddress();
+                int prefixLength = slash < 0 ? network.length * 8 : Integer.parseInt(rule.substring(slash + 1));
+                if (prefixLength < 0 || prefixLength > network.length * 8) {
+                    logger.warn("Invalid IP rule: {}", rule);
+                    continue;
+                }
+                trie.add(network, prefixLength);
+            } catch (UnknownHostException | NumberFormatException e) {
+                logger.warn("Invalid IP rule: {}", rule);
+            }
         }
-        
-        // Hostname match
-        try {
-            InetAddress ruleAddress = InetAddress.getByName(rule);
-            return clientAddress.equals(ruleAddress);
-        } catch (UnknownHostException e) {
-            logger.warn("Invalid IP rule: {}", rule);
-            return false;
+
+        for (InetAddress address : resolved) {
+            byte[] bytes = address.getAddress();
+            trie.add(bytes, bytes.length * 8);
         }
+
+        return new Rules(allowAll, trie, hostnames);
     }
-    
-    private boolean matchesCidr(InetAddress clientAddress, String cidr) throws UnknownHostException {
-        String[] parts = cidr.split("/");
-        InetAddress networkAddress = InetAddress.getByName(parts[0]);
-        int prefixLength = Integer.parseInt(parts[1]);
-        
-        byte[] clientBytes = clientAddress.getAddress();
-        byte[] networkBytes = networkAddress.getAddress();
-        
-        if (clientBytes.length != networkBytes.length) {
-            return false;
+
+    /**
+     * Resolve hostname rules off the connection path, now and then periodically
+     */
+    private void startResolver(Rules compiled) {
+        if (compiled.hostnames.isEmpty()) {
+            return;
         }
-        
-        int bytesToCheck = prefixLength / 8;
-        int bitsToCheck = prefixLength % 8;
-        
-        // Check full bytes
-        for (int i = 0; i < bytesToCheck; i++) {
-            if (clientBytes[i] != networkBytes[i]) {
-                return false;
+        resolver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ip-whitelist-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        resolver.scheduleWithFixedDelay(() -> resolveHostnames(compiled.hostnames),
+            0, HOSTNAME_REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private void resolveHostnames(List<String> hostnames) {
+        List<InetAddress> resolved = new ArrayList<>();
+        for (String hostname : hostnames) {
+            try {
+                for (InetAddress address : InetAddress.getAllByName(hostname)) {
+                    resolved.add(address);
+                }
+            } catch (UnknownHostException e) {
+                logger.warn("Invalid IP rule: {}", hostname);
             }
         }
-        
-        // Check remaining bits
-        if (bitsToCheck > 0) {
-            int mask = 0xFF << (8 - bitsToCheck);
-            return (clientBytes[bytesToCheck] & mask) == (networkBytes[bytesToCheck] & mask);
-        }
-        
-        return true;
+        rules = compile(resolved);
+        logger.debug("Resolved {} hostname rules to {} addresses", hostnames.size(), resolved.size());
     }
-    
+
     public void logConnectionAttempt(String remoteAddress, boolean allowed) {
         if (allowed) {
             logger.info("Connection allowed from IP: {}", remoteAddress);
@@ -134,4 +206,16 @@ public class IpWhitelistService {
             logger.warn("Connection blocked from IP: {} (not in whitelist)", remoteAddress);
         }
     }
-}
\ No newline at end of file
+
+    private static class Rules {
+        private final boolean allowAll;
+        private final IpPrefixTrie trie;
+        private final List<String> hostnames;
+
+        Rules(boolean allowAll, IpPrefixTrie trie, List<String> hostnames) {
+            this.allowAll = allowAll;
+            this.trie = trie;
+            this.hostnames = hostnames;
+        }
+    }
+}
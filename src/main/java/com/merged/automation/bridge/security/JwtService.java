@@ -1,6 +1,7 @@
 package com.merged.automation.bridge.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import org.slf4j.Logger;
@@ -9,21 +10,50 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class JwtService {
     
     private static final Logger logger = LoggerFactory.getLogger(JwtService.class);
     
+    private static final int MAX_CACHED_TOKENS = 10_000;
+    
     @Autowired
     private SecurityConfig securityConfig;
     
+    // Built from the secret on first use, since the config is injected after construction
+    private volatile SecretKey signingKey;
+    private volatile JwtParser parser;
+    
+    // Claims of verified tokens by SHA-256 of the token, kept until the token expires
+    private final Map<ByteBuffer, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+    
     private SecretKey getSigningKey() {
-        String secret = securityConfig.getJwtSecret();
-        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        SecretKey key = signingKey;
+        if (key == null) {
+            synchronized (this) {
+                key = signingKey;
+                if (key == null) {
+                    String secret = securityConfig.getJwtSecret();
+                    key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+                    parser = Jwts.parser().verifyWith(key).build();
+                    signingKey = key;
+                }
+            }
+        }
+        return key;
+    }
+    
+    private JwtParser getParser() {
+        getSigningKey();
+        return parser;
     }
     
     public String generateToken(String clientId, String clientType, Map<String, Object> claims) {
@@ -44,17 +74,47 @@ public class JwtService {
         return generateToken(clientId, clientType, Map.of());
     }
     
+    /**
+     * Verify a token, or return the claims of an earlier verification if the token has not expired since
+     *
+     * @return null if the token is invalid or expired
+     */
     public Claims validateToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        
+        ByteBuffer digest = digest(token);
+        long now = System.currentTimeMillis();
+        VerifiedToken cached = verifiedTokens.get(digest);
+        if (cached != null) {
+            if (cached.expiresAt > now) {
+                return cached.claims;
+            }
+            verifiedTokens.remove(digest, cached);
+            return null;
+        }
+        
+        Claims claims;
         try {
-            return Jwts.parser()
-                    .verifyWith(getSigningKey())
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload();
+            // Rejects expired tokens as well as bad signatures
+            claims = getParser().parseSignedClaims(token).getPayload();
         } catch (Exception e) {
             logger.warn("JWT validation failed: {}", e.getMessage());
             return null;
         }
+        
+        // Tokens without an expiry are verified every time
+        Date expiration = claims.getExpiration();
+        if (expiration != null) {
+            if (verifiedTokens.size() >= MAX_CACHED_TOKENS) {
+                evictExpired();
+            }
+            if (verifiedTokens.size() < MAX_CACHED_TOKENS) {
+                verifiedTokens.put(digest, new VerifiedToken(claims, expiration.getTime()));
+            }
+        }
+        return claims;
     }
     
     public String getClientIdFromToken(String token) {
@@ -68,20 +128,39 @@ public class JwtService {
     }
     
     public boolean isTokenExpired(String token) {
-        Claims claims = validateToken(token);
-        if (claims == null) {
-            return true;
-        }
-        return claims.getExpiration().before(new Date());
+        return validateToken(token) == null;
     }
     
     public boolean validateTokenForClient(String token, String expectedClientId) {
+        // One verification covers signature and expiry
         Claims claims = validateToken(token);
-        if (claims == null) {
-            return false;
+        return claims != null && expectedClientId.equals(claims.getSubject());
+    }
+    
+    /**
+     * Drop cached verifications of tokens that have expired
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        verifiedTokens.values().removeIf(verified -> verified.expiresAt <= now);
+    }
+    
+    private static ByteBuffer digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return ByteBuffer.wrap(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
         }
+    }
+    
+    private static class VerifiedToken {
+        private final Claims claims;
+        private final long expiresAt;
         
-        String tokenClientId = claims.getSubject();
-        return expectedClientId.equals(tokenClientId) && !isTokenExpired(token);
+        VerifiedToken(Claims claims, long expiresAt) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
+        }
     }
-}
\ No newline at end of file
+}
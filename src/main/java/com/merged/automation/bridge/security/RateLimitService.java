@@ -1,14 +1,24 @@
 package com.merged.automation.bridge.security;
 
-import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Rate limits per client and per IP. Methods configured with a cost above 1
+ * are expensive: they draw their cost from a separate per-client bucket, so
+ * a client that has used up its expensive quota can still send heartbeats.
+ * Clients of a type listed in the client quotas get that type's limits.
+ */
 @Service
 public class RateLimitService {
     
@@ -17,27 +27,57 @@ public class RateLimitService {
     @Autowired
     private SecurityConfig securityConfig;
     
-    private final ConcurrentMap<String, RateLimiter> clientLimiters = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, RateLimiter> ipLimiters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ClientBuckets> clientLimiters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TokenBucket> ipLimiters = new ConcurrentHashMap<>();
+    
+    // Compiled on first use, since the config is injected after construction
+    private volatile Quotas quotas;
     
     public boolean isAllowed(String clientId, String remoteIp) {
-        return isClientAllowed(clientId) && isIpAllowed(remoteIp);
+        return isAllowed(clientId, null, remoteIp, null);
+    }
+    
+    /**
+     * @param clientType type the client authenticated as, null if not yet known
+     * @param method RPC method of the message, null to count it as cheap
+     */
+    public boolean isAllowed(String clientId, String clientType, String remoteIp, String method) {
+        return isClientAllowed(clientId, clientType, method) && isIpAllowed(remoteIp);
     }
     
     public boolean isClientAllowed(String clientId) {
-        RateLimiter limiter = clientLimiters.computeIfAbsent(clientId, this::createRateLimiter);
-        boolean allowed = limiter.tryAcquire();
+        return isClientAllowed(clientId, null, null);
+    }
+    
+    public boolean isClientAllowed(String clientId, String clientType, String method) {
+        long now = System.nanoTime();
+        Quotas current = getQuotas();
+        ClientBuckets buckets = getClientBuckets(current, clientId, clientType, now);
         
-        if (!allowed) {
-            logger.warn("Rate limit exceeded for client: {}", clientId);
+        int cost = current.getCost(method);
+        if (cost > 1) {
+            if (!buckets.expensive.tryAcquire(cost, now)) {
+                logger.warn("Quota for {} exceeded for client: {}", method, clientId);
+                return false;
+            }
+            return true;
         }
         
-        return allowed;
+        if (!buckets.general.tryAcquire(1, now)) {
+            logger.warn("Rate limit exceeded for client: {}", clientId);
+            return false;
+        }
+        return true;
     }
     
     public boolean isIpAllowed(String remoteIp) {
-        RateLimiter limiter = ipLimiters.computeIfAbsent(remoteIp, this::createRateLimiter);
-        boolean allowed = limiter.tryAcquire();
+        long now = System.nanoTime();
+        TokenBucket bucket = ipLimiters.get(remoteIp);
+        if (bucket == null) {
+            Quota quota = getQuotas().defaults;
+            bucket = ipLimiters.computeIfAbsent(remoteIp, k -> quota.newBucket(now));
+        }
+        boolean allowed = bucket.tryAcquire(1, now);
         
         if (!allowed) {
             logger.warn("Rate limit exceeded for IP: {}", remoteIp);
@@ -46,9 +86,15 @@ public class RateLimitService {
         return allowed;
     }
     
-    private RateLimiter createRateLimiter(String key) {
-        double permitsPerSecond = (double) securityConfig.getRateLimitRequests() / securityConfig.getRateLimitWindow();
-        return RateLimiter.create(permitsPerSecond);
+    private ClientBuckets getClientBuckets(Quotas current, String clientId, String clientType, long now) {
+        ClientBuckets buckets = clientLimiters.get(clientId);
+        if (buckets == null || !Objects.equals(buckets.clientType, clientType)) {
+            // New client, or one that has just authenticated and gets its type's quota
+            buckets = clientLimiters.compute(clientId, (k, existing) ->
+                existing != null && Objects.equals(existing.clientType, clientType)
+                    ? existing : new ClientBuckets(clientType, current.forType(clientType), now));
+        }
+        return buckets;
     }
     
     public void resetClientLimits(String clientId) {
@@ -62,29 +108,35 @@ public class RateLimitService {
     }
     
     public double getAvailablePermits(String clientId) {
-        RateLimiter limiter = clientLimiters.get(clientId);
-        // Guava RateLimiter doesn't expose available permits, so we estimate
-        return limiter != null ? 1.0 : 0.0;
+        long now = System.nanoTime();
+        ClientBuckets buckets = clientLimiters.get(clientId);
+        // A client without buckets yet would get full ones
+        TokenBucket bucket = buckets != null ? buckets.general : getQuotas().defaults.newBucket(now);
+        return bucket.getAvailablePermits(now);
     }
     
+    /**
+     * Cost units left in the client's bucket for expensive methods
+     */
+    public double getAvailableExpensivePermits(String clientId) {
+        long now = System.nanoTime();
+        ClientBuckets buckets = clientLimiters.get(clientId);
+        TokenBucket bucket = buckets != null ? buckets.expensive : getQuotas().defaults.newExpensiveBucket(now);
+        return bucket.getAvailablePermits(now);
+    }
+    
+    /**
+     * Drop buckets that have been full for longer than the idle timeout; active clients keep theirs
+     */
     public void cleanupOldLimiters() {
-        // Simple cleanup strategy - remove some limiters periodically
-        // In a production system, you might want a more sophisticated approach
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(securityConfig.getRateLimitIdleTimeout());
         int initialClientSize = clientLimiters.size();
         int initialIpSize = ipLimiters.size();
         
-        // Remove every 10th limiter to prevent unbounded growth
-        if (initialClientSize > 1000) {
-            clientLimiters.entrySet().removeIf(entry -> 
-                entry.getKey().hashCode() % 10 == 0
-            );
-        }
-        
-        if (initialIpSize > 1000) {
-            ipLimiters.entrySet().removeIf(entry -> 
-                entry.getKey().hashCode() % 10 == 0
-            );
-        }
+        clientLimiters.values().removeIf(buckets -> 
+            buckets.general.isIdle(now, idleNanos) && buckets.expensive.isIdle(now, idleNanos));
+        ipLimiters.values().removeIf(bucket -> bucket.isIdle(now, idleNanos));
         
         int removedClients = initialClientSize - clientLimiters.size();
         int removedIps = initialIpSize - ipLimiters.size();
@@ -93,4 +145,128 @@ public class RateLimitService {
             logger.debug("Cleaned up {} client limiters and {} IP limiters", removedClients, removedIps);
         }
     }
-}
\ No newline at end of file
+    
+    private Quotas getQuotas() {
+        Quotas current = quotas;
+        if (current == null) {
+            synchronized (this) {
+                current = quotas;
+                if (current == null) {
+                    current = compileQuotas();
+                    quotas = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    private Quotas compileQuotas() {
+        Map<String, Integer> methodCosts = new HashMap<>();
+        int maxCost = 1;
+        for (String entry : securityConfig.getRateLimitMethodCosts()) {
+            String[] parts = entry.trim().split("=");
+            try {
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException();
+                }
+                int cost = Integer.parseInt(parts[1].trim());
+                if (cost < 1) {
+                    throw new IllegalArgumentException();
+                }
+                methodCosts.put(parts[0].trim(), cost);
+                maxCost = Math.max(maxCost, cost);
+            } catch (RuntimeException e) {
+                logger.warn("Invalid method cost: {}", entry);
+            }
+        }
+        
+        int window = securityConfig.getRateLimitWindow();
+        Quota defaults = new Quota(window, securityConfig.getRateLimitRequests(), 
+            securityConfig.getRateLimitExpensiveRequests(), securityConfig.getRateLimitBurst(), maxCost);
+        
+        Map<String, Quota> byClientType = new HashMap<>();
+        for (String entry : securityConfig.getRateLimitClientQuotas()) {
+            // type=requests or type=requests:expensive
+            String[] parts = entry.trim().split("[=:]");
+            try {
+                if (parts.length < 2 || parts.length > 3) {
+                    throw new IllegalArgumentException();
+                }
+                int requests = Integer.parseInt(parts[1].trim());
+                int expensive = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : securityConfig.getRateLimitExpensiveRequests();
+                if (requests < 1 || expensive < 1) {
+                    throw new IllegalArgumentException();
+                }
+                byClientType.put(parts[0].trim().toLowerCase(), 
+                    new Quota(window, requests, expensive, securityConfig.getRateLimitBurst(), maxCost));
+            } catch (RuntimeException e) {
+                logger.warn("Invalid client quota: {}", entry);
+            }
+        }
+        
+        return new Quotas(methodCosts, byClientType, defaults);
+    }
+    
+    private static class Quotas {
+        private final Map<String, Integer> methodCosts;
+        private final Map<String, Quota> byClientType;
+        private final Quota defaults;
+        
+        Quotas(Map<String, Integer> methodCosts, Map<String, Quota> byClientType, Quota defaults) {
+            this.methodCosts = methodCosts;
+            this.byClientType = byClientType;
+            this.defaults = defaults;
+        }
+        
+        int getCost(String method) {
+            Integer cost = method != null ? methodCosts.get(method) : null;
+            return cost != null ? cost : 1;
+        }
+        
+        Quota forType(String clientType) {
+            Quota quota = clientType != null ? byClientType.get(clientType.toLowerCase()) : null;
+            return quota != null ? quota : defaults;
+        }
+    }
+    
+    /**
+     * Refill rates and sizes of the buckets of one kind of client
+     */
+    private static class Quota {
+        private final long intervalNanos;
+        private final int burst;
+        private final long expensiveIntervalNanos;
+        private final int expensiveCapacity;
+        
+        Quota(int windowSeconds, int requests, int expensiveRequests, int burst, int maxCost) {
+            long windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+            this.intervalNanos = Math.max(windowNanos / requests, 1);
+            // One second's worth of requests unless configured, as before burst was configurable
+            this.burst = burst > 0 ? burst : (int) Math.max(1, TimeUnit.SECONDS.toNanos(1) / intervalNanos);
+            this.expensiveIntervalNanos = Math.max(windowNanos / expensiveRequests, 1);
+            // Expensive calls are rare, so the whole window's quota may be used at once,
+            // and never less than the dearest method
+            this.expensiveCapacity = Math.max(expensiveRequests, maxCost);
+        }
+        
+        TokenBucket newBucket(long now) {
+            return new TokenBucket(intervalNanos, burst, now);
+        }
+        
+        TokenBucket newExpensiveBucket(long now) {
+            return new TokenBucket(expensiveIntervalNanos, expensiveCapacity, now);
+        }
+    }
+    
+    private static class ClientBuckets {
+        private final String clientType;
+        private final TokenBucket general;
+        private final TokenBucket expensive;
+        
+        ClientBuckets(String clientType, Quota quota, long now) {
+            this.clientType = clientType;
+            this.general = quota.newBucket(now);
+            this.expensive = quota.newExpensiveBucket(now);
+        }
+    }
+}
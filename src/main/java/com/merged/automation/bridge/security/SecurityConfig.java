@@ -30,11 +30,30 @@ public class SecurityConfig {
     @Value("${bridge.security.require-auth:true}")
     private boolean requireAuth;
     
+    @Value("${bridge.security.upgrade-auth-required:false}")
+    private boolean upgradeAuthRequired;
+    
+    // Initialized as well, since SecurityFactory builds this without Spring
     @Value("${bridge.security.rate-limit.requests:100}")
-    private int rateLimitRequests;
+    private int rateLimitRequests = 100;
     
     @Value("${bridge.security.rate-limit.window:60}")
-    private int rateLimitWindow;
+    private int rateLimitWindow = 60;
+    
+    @Value("${bridge.security.rate-limit.burst:0}")
+    private int rateLimitBurst = 0;
+    
+    @Value("${bridge.security.rate-limit.idle-timeout:300000}")
+    private long rateLimitIdleTimeout = 300000;
+    
+    @Value("${bridge.security.rate-limit.expensive-requests:60}")
+    private int rateLimitExpensiveRequests = 60;
+    
+    @Value("${bridge.security.rate-limit.method-costs:automation.execute=10,vnc.start=5}")
+    private List<String> rateLimitMethodCosts = List.of("automation.execute=10", "vnc.start=5");
+    
+    @Value("${bridge.security.rate-limit.client-quotas:}")
+    private List<String> rateLimitClientQuotas;
     
     @Bean
     public PasswordEncoder passwordEncoder() {
@@ -74,6 +93,13 @@ public class SecurityConfig {
         return requireAuth;
     }
     
+    /**
+     * Whether WebSocket upgrades without a token are rejected before a connection is set up
+     */
+    public boolean isUpgradeAuthRequired() {
+        return upgradeAuthRequired;
+    }
+    
     public int getRateLimitRequests() {
         return rateLimitRequests;
     }
@@ -81,4 +107,39 @@ public class SecurityConfig {
     public int getRateLimitWindow() {
         return rateLimitWindow;
     }
+    
+    /**
+     * Requests a client or IP may send at once after being quiet; 0 means one second's worth
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+    
+    /**
+     * Milliseconds a full rate limit bucket is kept before it is dropped
+     */
+    public long getRateLimitIdleTimeout() {
+        return rateLimitIdleTimeout;
+    }
+    
+    /**
+     * Cost units per window a client may spend on methods that cost more than 1
+     */
+    public int getRateLimitExpensiveRequests() {
+        return rateLimitExpensiveRequests;
+    }
+    
+    /**
+     * Entries of the form method=cost; unlisted methods cost 1
+     */
+    public List<String> getRateLimitMethodCosts() {
+        return rateLimitMethodCosts != null ? rateLimitMethodCosts : List.of();
+    }
+    
+    /**
+     * Entries of the form clientType=requests or clientType=requests:expensive, replacing the limits for that type
+     */
+    public List<String> getRateLimitClientQuotas() {
+        return rateLimitClientQuotas != null ? rateLimitClientQuotas : List.of();
+    }
 }
\ No newline at end of file
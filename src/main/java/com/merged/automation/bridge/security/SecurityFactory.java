@@ -1,15 +1,18 @@
 package com.merged.automation.bridge.security;
 
+import com.merged.automation.bridge.config.ConfigLoader;
+
 public class SecurityFactory {
     
     public static SecurityComponents createSecurityComponents() {
-        SecurityConfig securityConfig = new SecurityConfig();
+        SecurityConfig securityConfig = ConfigLoader.bind(new SecurityConfig());
         
         JwtService jwtService = new JwtService();
         setSecurityConfig(jwtService, securityConfig);
         
         IpWhitelistService ipWhitelistService = new IpWhitelistService();
         setSecurityConfig(ipWhitelistService, securityConfig);
+        ipWhitelistService.init();
         
         RateLimitService rateLimitService = new RateLimitService();
         setSecurityConfig(rateLimitService, securityConfig);
@@ -1,7 +1,10 @@
 package com.merged.automation.bridge.security;
 
+import com.merged.automation.bridge.model.AuthenticateParams;
 import com.merged.automation.bridge.model.RpcMessage;
+import io.jsonwebtoken.Claims;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +12,8 @@ import org.springframework.stereotype.Service;
 
 import java.net.InetSocketAddress;
 import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -17,6 +22,9 @@ public class SecurityManager {
     
     private static final Logger logger = LoggerFactory.getLogger(SecurityManager.class);
     
+    // Subprotocol prefix for clients that cannot set headers, e.g. browsers
+    private static final String BEARER_SUBPROTOCOL_PREFIX = "bearer.";
+    
     @Autowired
     private SecurityConfig securityConfig;
     
@@ -36,8 +44,13 @@ public class SecurityManager {
     
     public SecurityCheckResult checkConnectionSecurity(Session session) {
         InetSocketAddress remoteAddress = (InetSocketAddress) session.getRemoteAddress();
-        String remoteIp = remoteAddress.getAddress().getHostAddress();
-        
+        return checkConnectionSecurity(remoteAddress.getAddress().getHostAddress());
+    }
+    
+    /**
+     * Check a connecting IP against the whitelist and the per-IP rate limit
+     */
+    public SecurityCheckResult checkConnectionSecurity(String remoteIp) {
         // Check IP whitelist
         if (!ipWhitelistService.isIpAllowed(remoteIp)) {
             ipWhitelistService.logConnectionAttempt(remoteIp, false);
@@ -53,12 +66,76 @@ public class SecurityManager {
         return SecurityCheckResult.allowed();
     }
     
+    /**
+     * Token presented in an upgrade request, as an Authorization bearer header
+     * or as a {@code bearer.<token>} subprotocol offer
+     *
+     * @return null if the request carries none
+     */
+    public String getUpgradeToken(UpgradeRequest request) {
+        String authorization = request.getHeader("Authorization");
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).trim();
+        }
+        String bearer = findBearerSubprotocol(request.getSubProtocols());
+        return bearer != null ? bearer.substring(BEARER_SUBPROTOCOL_PREFIX.length()) : null;
+    }
+    
+    /**
+     * The {@code bearer.<token>} entry among offered subprotocols
+     *
+     * @return null if none is offered
+     */
+    public static String findBearerSubprotocol(List<String> subprotocols) {
+        if (subprotocols != null) {
+            for (String subprotocol : subprotocols) {
+                String offered = subprotocol.trim();
+                if (offered.startsWith(BEARER_SUBPROTOCOL_PREFIX)) {
+                    return offered;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Verify the token of an upgrade request
+     *
+     * @return the principal to bind to the connection, null if the token is invalid or expired
+     */
+    public ClientPrincipal authenticateUpgrade(String token, String remoteIp) {
+        Claims claims = jwtService.validateToken(token);
+        if (claims == null) {
+            logSecurityEvent("INVALID_TOKEN", null, remoteIp, "upgrade");
+            return null;
+        }
+        
+        String clientType = claims.get("type", String.class);
+        if (!validationService.validateClientType(clientType).isValid()) {
+            logSecurityEvent("INVALID_CLIENT_TYPE", claims.getSubject(), remoteIp, "upgrade");
+            return null;
+        }
+        
+        Date expiration = claims.getExpiration();
+        logSecurityEvent("CLIENT_AUTHENTICATED", claims.getSubject(), remoteIp, "upgrade");
+        return new ClientPrincipal(claims.getSubject(), clientType.toLowerCase(), remoteIp, 
+            expiration != null ? expiration.getTime() : Long.MAX_VALUE);
+    }
+    
     public SecurityCheckResult checkMessageSecurity(String clientId, RpcMessage message, String rawMessage, Session session) {
-        InetSocketAddress remoteAddress = (InetSocketAddress) session.getRemoteAddress();
-        String remoteIp = remoteAddress.getAddress().getHostAddress();
+        return checkMessageSecurity(clientId, null, message, rawMessage, session);
+    }
+    
+    /**
+     * @param principal identity verified at upgrade, null if the connection authenticates with client.authenticate
+     */
+    public SecurityCheckResult checkMessageSecurity(String clientId, ClientPrincipal principal, RpcMessage message, 
+                                                    String rawMessage, Session session) {
+        String remoteIp = principal != null ? principal.getRemoteIp() : getRemoteIp(session);
         
-        // Rate limiting check
-        if (!rateLimitService.isAllowed(clientId, remoteIp)) {
+        // Rate limiting check, against the quota of the client's type once it is known
+        String clientType = principal != null ? principal.getClientType() : getAuthenticatedClientType(clientId);
+        if (!rateLimitService.isAllowed(clientId, clientType, remoteIp, message.getMethod())) {
             logSecurityEvent("RATE_LIMIT_EXCEEDED", clientId, remoteIp, message.getMethod());
             return SecurityCheckResult.blocked("Rate limit exceeded");
         }
@@ -70,8 +147,22 @@ public class SecurityManager {
             return SecurityCheckResult.blocked("Invalid message: " + validation.getErrorMessage());
         }
         
-        // Authentication check (except for authentication requests)
-        if (securityConfig.isRequireAuth() && !"client.authenticate".equals(message.getMethod())) {
+        // Connections authenticated at upgrade carry their identity with them
+        if (principal != null) {
+            if (principal.isExpired()) {
+                logSecurityEvent("TOKEN_EXPIRED", clientId, remoteIp, message.getMethod());
+                return SecurityCheckResult.blocked("Token expired");
+            }
+            if ("client.authenticate".equals(message.getMethod())) {
+                AuthenticateParams params = message.getParams(AuthenticateParams.class);
+                if (params != null && !principal.getClientType().equalsIgnoreCase(params.getType())) {
+                    logSecurityEvent("INVALID_CLIENT_TYPE", clientId, remoteIp, message.getMethod(), 
+                        "Token is for " + principal.getClientType());
+                    return SecurityCheckResult.blocked("Client type does not match token");
+                }
+            }
+        } else if (securityConfig.isRequireAuth() && !"client.authenticate".equals(message.getMethod())) {
+            // Authentication check (except for authentication requests)
             AuthenticatedClient client = authenticatedClients.get(clientId);
             if (client == null || !client.isValid()) {
                 logSecurityEvent("UNAUTHENTICATED_REQUEST", clientId, remoteIp, message.getMethod());
@@ -86,9 +177,13 @@ public class SecurityManager {
         return SecurityCheckResult.allowed();
     }
     
+    private String getAuthenticatedClientType(String clientId) {
+        AuthenticatedClient client = authenticatedClients.get(clientId);
+        return client != null ? client.getClientType() : null;
+    }
+    
     public AuthenticationResult authenticateClient(String clientId, String clientType, String token, Session session) {
-        InetSocketAddress remoteAddress = (InetSocketAddress) session.getRemoteAddress();
-        String remoteIp = remoteAddress.getAddress().getHostAddress();
+        String remoteIp = getRemoteIp(session);
         
         // Validate client ID and type
         ValidationService.ValidationResult clientIdValidation = validationService.validateClientId(clientId);
@@ -148,6 +243,11 @@ public class SecurityManager {
         return client != null && client.isValid();
     }
     
+    private static String getRemoteIp(Session session) {
+        InetSocketAddress remoteAddress = (InetSocketAddress) session.getRemoteAddress();
+        return remoteAddress.getAddress().getHostAddress();
+    }
+    
     private void logSecurityEvent(String event, String clientId, String remoteIp, String method) {
         logSecurityEvent(event, clientId, remoteIp, method, null);
     }
@@ -177,6 +277,7 @@ public class SecurityManager {
         });
         
         rateLimitService.cleanupOldLimiters();
+        jwtService.evictExpired();
     }
     
     private static class AuthenticatedClient {
@@ -208,6 +309,10 @@ public class SecurityManager {
         public String getRemoteIp() {
             return remoteIp;
         }
+        
+        public String getClientType() {
+            return clientType;
+        }
     }
     
     public static class SecurityCheckResult {
@@ -0,0 +1,51 @@
+package com.merged.automation.bridge.security;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Token bucket kept as a single timestamp: the time at which the bucket would
+ * be full again. Taking permits pushes it forward by their refill time and is
+ * refused once that would put it more than a full bucket ahead of now. One
+ * CAS per acquire, no locks and no allocation. Times are System.nanoTime().
+ */
+final class TokenBucket {
+    private static final AtomicLongFieldUpdater<TokenBucket> FULL_AT =
+        AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "fullAt");
+
+    // Time to refill one permit
+    private final long intervalNanos;
+    // Time to refill the whole bucket
+    private final long capacityNanos;
+    private volatile long fullAt;
+
+    TokenBucket(long intervalNanos, int burst, long now) {
+        this.intervalNanos = intervalNanos;
+        this.capacityNanos = intervalNanos * burst;
+        this.fullAt = now;
+    }
+
+    boolean tryAcquire(int permits, long now) {
+        long cost = intervalNanos * permits;
+        while (true) {
+            long current = fullAt;
+            long next = Math.max(current - now, 0) + cost;
+            if (next > capacityNanos) {
+                return false;
+            }
+            if (FULL_AT.compareAndSet(this, current, now + next)) {
+                return true;
+            }
+        }
+    }
+
+    double getAvailablePermits(long now) {
+        return (double) (capacityNanos - Math.max(fullAt - now, 0)) / intervalNanos;
+    }
+
+    /**
+     * Whether the bucket has been full for longer than idleNanos, so dropping it loses nothing
+     */
+    boolean isIdle(long now, long idleNanos) {
+        return now - fullAt > idleNanos;
+    }
+}
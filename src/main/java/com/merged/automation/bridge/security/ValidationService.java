@@ -1,6 +1,12 @@
 package com.merged.automation.bridge.security;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.merged.automation.bridge.model.AuthenticateParams;
+import com.merged.automation.bridge.model.AutomationParams;
+import com.merged.automation.bridge.model.BatchingParams;
+import com.merged.automation.bridge.model.MethodParams;
 import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.model.VncChannelParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -17,6 +23,7 @@ public class ValidationService {
     private static final int MAX_METHOD_NAME_LENGTH = 100;
     private static final int MAX_CLIENT_ID_LENGTH = 100;
     private static final int MAX_PARAM_VALUE_LENGTH = 10 * 1024; // 10KB per parameter
+    private static final int MAX_VERSION_LENGTH = 50;
     
     private static final Pattern VALID_METHOD_NAME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9._-]{0,99}$");
     private static final Pattern VALID_CLIENT_ID = Pattern.compile("^[a-zA-Z0-9][a-zA-Z0-9._-]{0,99}$");
@@ -24,16 +31,31 @@ public class ValidationService {
     private static final Set<String> ALLOWED_RPC_METHODS = Set.of(
         "client.authenticate",
         "client.heartbeat",
+        "client.set_batching",
         "automation.get_status",
         "automation.list",
         "automation.get",
         "automation.execute",
+        "automation.status_update",
         "vnc.get_status",
         "vnc.start",
         "vnc.stop",
+        "vnc.open_channel",
         "server.status",
         "server.list_clients",
-        "server.ping"
+        "server.ping",
+        "server.metrics",
+        "subscription.subscribe",
+        "subscription.unsubscribe",
+        "stream.open",
+        "stream.chunk",
+        "stream.credit",
+        "stream.cancel"
+    );
+    
+    // Whole namespaces forwarded to other clients rather than handled by the bridge
+    private static final Set<String> ALLOWED_RPC_NAMESPACES = Set.of(
+        "scheduler."
     );
     
     public ValidationResult validateRpcMessage(RpcMessage message, String rawMessage) {
@@ -53,6 +75,11 @@ public class ValidationService {
             return ValidationResult.error("Message ID too long");
         }
         
+        // Replies are matched by id and carry no method
+        if (message.getType() == RpcMessage.MessageType.RESPONSE || message.getType() == RpcMessage.MessageType.ERROR) {
+            return ValidationResult.success();
+        }
+        
         if (message.getMethod() == null || message.getMethod().trim().isEmpty()) {
             return ValidationResult.error("Method is required");
         }
@@ -65,7 +92,7 @@ public class ValidationService {
             return ValidationResult.error("Invalid method name format");
         }
         
-        if (!ALLOWED_RPC_METHODS.contains(message.getMethod())) {
+        if (!isMethodAllowed(message.getMethod())) {
             return ValidationResult.error("Method not allowed: " + message.getMethod());
         }
         
@@ -77,6 +104,14 @@ public class ValidationService {
         return ValidationResult.success();
     }
     
+    private boolean isMethodAllowed(String method) {
+        if (ALLOWED_RPC_METHODS.contains(method)) {
+            return true;
+        }
+        int dot = method.indexOf('.');
+        return dot > 0 && ALLOWED_RPC_NAMESPACES.contains(method.substring(0, dot + 1));
+    }
+    
     public ValidationResult validateClientId(String clientId) {
         if (clientId == null || clientId.trim().isEmpty()) {
             return ValidationResult.error("Client ID is required");
@@ -107,14 +142,27 @@ public class ValidationService {
     }
     
     private ValidationResult validateParameters(RpcMessage message) {
-        Object params = message.getParams();
-        if (params == null) {
+        // Received params are measured in their wire form, nothing is rendered to check them.
+        // Stream chunks are bounded by the frame size limit instead.
+        int maxParamsSize = "stream.chunk".equals(message.getMethod()) ? MAX_MESSAGE_LENGTH : MAX_PARAM_VALUE_LENGTH;
+        if (message.getParamsSize() > maxParamsSize) {
+            return ValidationResult.error("Parameters too large");
+        }
+        
+        // Methods with a param class get their params bound into it, which also checks their shape
+        Class<?> paramsType = MethodParams.typeFor(message.getMethod());
+        if (paramsType == null) {
             return ValidationResult.success();
         }
         
-        String paramStr = params.toString();
-        if (paramStr.length() > MAX_PARAM_VALUE_LENGTH) {
-            return ValidationResult.error("Parameters too large");
+        Object params;
+        try {
+            params = message.getParams(paramsType);
+        } catch (RuntimeException e) {
+            return ValidationResult.error("Invalid parameters for " + message.getMethod() + ": " + describe(e));
+        }
+        if (params == null) {
+            return ValidationResult.success();
         }
         
         // Additional parameter validation based on method
@@ -124,31 +172,83 @@ public class ValidationService {
     private ValidationResult validateMethodSpecificParams(String method, Object params) {
         switch (method) {
             case "client.authenticate":
-                return validateAuthParams(params);
+                return validateAuthParams((AuthenticateParams) params);
             case "automation.execute":
-                return validateExecuteParams(params);
             case "automation.get":
-                return validateGetParams(params);
+                return validateAutomationParams((AutomationParams) params);
+            case "client.set_batching":
+                return validateBatchingParams((BatchingParams) params);
+            case "vnc.open_channel":
+                return validateVncChannelParams((VncChannelParams) params);
             default:
                 return ValidationResult.success();
         }
     }
     
-    private ValidationResult validateAuthParams(Object params) {
-        // Additional validation for authentication parameters
+    private ValidationResult validateAuthParams(AuthenticateParams params) {
+        ValidationResult typeResult = validateClientType(params.getType());
+        if (!typeResult.isValid()) {
+            return typeResult;
+        }
+        
+        if (params.getName() != null && params.getName().length() > MAX_CLIENT_ID_LENGTH) {
+            return ValidationResult.error("Client name too long");
+        }
+        
+        if (params.getVersion() != null && params.getVersion().length() > MAX_VERSION_LENGTH) {
+            return ValidationResult.error("Client version too long");
+        }
+        
+        return ValidationResult.success();
+    }
+    
+    private ValidationResult validateAutomationParams(AutomationParams params) {
+        if (params.getAutomationId() == null || params.getAutomationId().trim().isEmpty()) {
+            return ValidationResult.error("automationId is required");
+        }
+        
+        if (params.getAutomationId().length() > MAX_CLIENT_ID_LENGTH) {
+            return ValidationResult.error("automationId too long");
+        }
+        
+        if (params.getDeviceId() != null && params.getDeviceId().length() > MAX_CLIENT_ID_LENGTH) {
+            return ValidationResult.error("deviceId too long");
+        }
+        
         return ValidationResult.success();
     }
     
-    private ValidationResult validateExecuteParams(Object params) {
-        // Additional validation for execution parameters
+    private ValidationResult validateBatchingParams(BatchingParams params) {
+        if (params.getMaxDelayMs() != null && !(params.getMaxDelayMs() >= 0)) {
+            return ValidationResult.error("maxDelayMs must not be negative");
+        }
+        
+        if (params.getMaxMessages() != null && params.getMaxMessages() < 1) {
+            return ValidationResult.error("maxMessages must be positive");
+        }
+        
         return ValidationResult.success();
     }
     
-    private ValidationResult validateGetParams(Object params) {
-        // Additional validation for get parameters
+    private ValidationResult validateVncChannelParams(VncChannelParams params) {
+        if (params.getDeviceId() == null || params.getDeviceId().trim().isEmpty()) {
+            return ValidationResult.error("deviceId is required");
+        }
+        
+        if (params.getDeviceId().length() > MAX_CLIENT_ID_LENGTH) {
+            return ValidationResult.error("deviceId too long");
+        }
+        
         return ValidationResult.success();
     }
     
+    private static String describe(RuntimeException e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        return cause instanceof JsonProcessingException 
+            ? ((JsonProcessingException) cause).getOriginalMessage() 
+            : cause.getMessage();
+    }
+    
     public static class ValidationResult {
         private final boolean valid;
         private final String errorMessage;
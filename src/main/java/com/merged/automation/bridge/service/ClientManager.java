@@ -1,15 +1,23 @@
 package com.merged.automation.bridge.service;
 
+import com.merged.automation.bridge.config.BridgeConfig;
 import com.merged.automation.bridge.model.ClientInfo;
 import com.merged.automation.bridge.model.RpcMessage;
 import com.merged.automation.bridge.websocket.AutomationWebSocketHandler;
+import com.merged.automation.bridge.websocket.EncodedFrame;
+import com.merged.automation.bridge.websocket.FrameEncoder;
+import com.merged.automation.bridge.websocket.OutboundQueue;
+import com.merged.automation.bridge.websocket.RpcCodecs;
+import com.merged.automation.bridge.websocket.WireFormat;
 import org.eclipse.jetty.websocket.api.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Manages WebSocket client connections and routing
@@ -20,12 +28,49 @@ public class ClientManager {
     private final Map<String, ClientSession> clients = new ConcurrentHashMap<>();
     private final List<ClientManagerListener> listeners = new CopyOnWriteArrayList<>();
     
+    // Per-type snapshots by type ordinal; replaced under indexLock and published
+    // through the array's volatile semantics, so readers need no lock
+    private final AtomicReferenceArray<TypeIndex> typeIndex = 
+        new AtomicReferenceArray<>(ClientInfo.ClientType.values().length);
+    private final Object indexLock = new Object();
+    
+    private final RpcCodecs codecs;
+    private final FrameEncoder frameEncoder;
+    private final int parallelFanoutThreshold;
+    private final Set<String> conflatedMethods;
+    private final String conflationKeyParam;
+    private final boolean passThrough;
+    
+    /**
+     * @param codecs encoders for broadcast messages
+     * @param frameEncoder pooled buffers that broadcast frames are serialized into
+     */
+    public ClientManager(RpcCodecs codecs, BridgeConfig bridgeConfig, FrameEncoder frameEncoder) {
+        this.codecs = codecs;
+        this.frameEncoder = frameEncoder;
+        this.parallelFanoutThreshold = bridgeConfig.getBroadcastParallelThreshold();
+        this.conflatedMethods = bridgeConfig.isConflationEnabled() 
+            ? Set.copyOf(bridgeConfig.getConflationMethods()) : Set.of();
+        this.conflationKeyParam = bridgeConfig.getConflationKeyParam();
+        this.passThrough = bridgeConfig.isRpcPassThrough();
+        for (ClientInfo.ClientType type : ClientInfo.ClientType.values()) {
+            typeIndex.set(type.ordinal(), TypeIndex.EMPTY);
+        }
+    }
+    
     /**
      * Register a new client
      */
-    public void registerClient(String clientId, Session session, ClientInfo clientInfo) {
-        ClientSession clientSession = new ClientSession(session, clientInfo);
-        clients.put(clientId, clientSession);
+    public void registerClient(String clientId, Session session, ClientInfo clientInfo, 
+                               AutomationWebSocketHandler handler) {
+        ClientSession clientSession = new ClientSession(clientId, session, clientInfo, handler);
+        synchronized (indexLock) {
+            ClientSession previous = clients.put(clientId, clientSession);
+            if (previous != null) {
+                removeFromIndex(previous);
+            }
+            addToIndex(clientSession);
+        }
         
         logger.info("Client registered: {} ({})", clientId, clientInfo.getType());
         notifyClientConnected(clientId, clientInfo);
@@ -35,7 +80,13 @@ public class ClientManager {
      * Unregister a client
      */
     public void unregisterClient(String clientId) {
-        ClientSession clientSession = clients.remove(clientId);
+        ClientSession clientSession;
+        synchronized (indexLock) {
+            clientSession = clients.remove(clientId);
+            if (clientSession != null) {
+                removeFromIndex(clientSession);
+            }
+        }
         if (clientSession != null) {
             clientSession.getClientInfo().setStatus(ClientInfo.ClientStatus.DISCONNECTED);
             logger.info("Client unregistered: {}", clientId);
@@ -49,8 +100,16 @@ public class ClientManager {
     public void updateClientInfo(String clientId, ClientInfo clientInfo) {
         ClientSession clientSession = clients.get(clientId);
         if (clientSession != null) {
-            clientSession.setClientInfo(clientInfo);
+            synchronized (indexLock) {
+                // Type may have been changed in place, e.g. by client.authenticate
+                if (clients.get(clientId) == clientSession) {
+                    removeFromIndex(clientSession);
+                    clientSession.setClientInfo(clientInfo);
+                    addToIndex(clientSession);
+                }
+            }
             logger.debug("Client info updated for: {}", clientId);
+            notifyClientUpdated(clientId, clientInfo);
         }
     }
     
@@ -101,16 +160,10 @@ public class ClientManager {
     }
     
     /**
-     * Get clients by type
+     * Get clients by type. Returns a shared immutable snapshot; O(1) and allocation-free.
      */
     public List<String> getClientsByType(ClientInfo.ClientType type) {
-        List<String> result = new ArrayList<>();
-        clients.forEach((id, session) -> {
-            if (session.getClientInfo().getType() == type) {
-                result.add(id);
-            }
-        });
-        return result;
+        return typeIndex.get(type.ordinal()).ids;
     }
     
     /**
@@ -118,13 +171,32 @@ public class ClientManager {
      */
     public boolean sendMessageToClient(String clientId, RpcMessage message) {
         ClientSession clientSession = clients.get(clientId);
-        if (clientSession != null && clientSession.getSession().isOpen()) {
+        return clientSession != null && sendMessage(clientSession, message);
+    }
+    
+    /**
+     * Send messages to specific client as one batch frame
+     */
+    public boolean sendBatchToClient(String clientId, List<RpcMessage> messages) {
+        ClientSession clientSession = clients.get(clientId);
+        if (clientSession == null || !clientSession.getSession().isOpen()) {
+            return false;
+        }
+        try {
+            return clientSession.getHandler().sendBatch(messages);
+        } catch (Exception e) {
+            logger.error("Failed to send batch to client {}: {}", clientId, e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    private boolean sendMessage(ClientSession clientSession, RpcMessage message) {
+        if (clientSession.getSession().isOpen()) {
             try {
-                // This would need to be implemented with proper WebSocket handler reference
-                logger.debug("Sending message to client {}: {}", clientId, message.getMethod());
-                return true;
+                logger.debug("Sending message to client {}: {}", clientSession.getClientId(), message.getMethod());
+                return clientSession.getHandler().sendMessage(message);
             } catch (Exception e) {
-                logger.error("Failed to send message to client {}: {}", clientId, e.getMessage(), e);
+                logger.error("Failed to send message to client {}: {}", clientSession.getClientId(), e.getMessage(), e);
                 return false;
             }
         }
@@ -135,14 +207,117 @@ public class ClientManager {
      * Broadcast message to all clients of specific type
      */
     public void broadcastToType(ClientInfo.ClientType type, RpcMessage message) {
-        getClientsByType(type).forEach(clientId -> sendMessageToClient(clientId, message));
+        broadcast(typeIndex.get(type.ordinal()).sessions, message);
     }
     
     /**
      * Broadcast message to all clients
      */
     public void broadcastToAll(RpcMessage message) {
-        clients.keySet().forEach(clientId -> sendMessageToClient(clientId, message));
+        broadcast(clients.values().toArray(new ClientSession[0]), message);
+    }
+    
+    /**
+     * Send message to the given clients, encoding it only once
+     */
+    public void multicast(Collection<String> clientIds, RpcMessage message) {
+        List<ClientSession> recipients = new ArrayList<>(clientIds.size());
+        for (String clientId : clientIds) {
+            ClientSession clientSession = clients.get(clientId);
+            if (clientSession != null) {
+                recipients.add(clientSession);
+            }
+        }
+        broadcast(recipients.toArray(new ClientSession[0]), message);
+    }
+    
+    /**
+     * Encode the message once per wire format in use and queue the same bytes on every recipient
+     */
+    private void broadcast(ClientSession[] recipients, RpcMessage message) {
+        if (recipients.length == 0) {
+            return;
+        }
+        
+        EncodedFrame[] frames = new EncodedFrame[WireFormat.values().length];
+        try {
+            for (ClientSession recipient : recipients) {
+                WireFormat format = recipient.getHandler().getWireFormat();
+                if (frames[format.ordinal()] == null) {
+                    frames[format.ordinal()] = format == WireFormat.JSON 
+                        ? AutomationWebSocketHandler.encodeJson(frameEncoder, codecs.json(), message, passThrough) 
+                        : frameEncoder.encode(codecs.get(format).getMessageWriter(), message, true);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to encode broadcast {}: {}", message.getMethod(), e.getMessage(), e);
+            releaseAll(frames);
+            return;
+        }
+        
+        String conflationKey = conflationKeyFor(message);
+        try {
+            if (recipients.length >= parallelFanoutThreshold) {
+                Arrays.stream(recipients).parallel().forEach(recipient -> sendFrame(recipient, frames, conflationKey));
+            } else {
+                for (ClientSession recipient : recipients) {
+                    sendFrame(recipient, frames, conflationKey);
+                }
+            }
+        } finally {
+            releaseAll(frames);
+        }
+    }
+    
+    private static void releaseAll(EncodedFrame[] frames) {
+        for (EncodedFrame frame : frames) {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+    
+    /**
+     * Key under which a newer message replaces an unwritten older one, or null if
+     * the message must always be delivered
+     */
+    private String conflationKeyFor(RpcMessage message) {
+        if (conflatedMethods.isEmpty() || !conflatedMethods.contains(message.getMethod())) {
+            return null;
+        }
+        Object key = message.getParam(conflationKeyParam);
+        return key != null ? message.getMethod() + ":" + key : null;
+    }
+    
+    private void sendFrame(ClientSession clientSession, EncodedFrame[] frames, String conflationKey) {
+        try {
+            AutomationWebSocketHandler handler = clientSession.getHandler();
+            handler.sendFrame(frames[handler.getWireFormat().ordinal()], conflationKey);
+        } catch (Exception e) {
+            logger.error("Failed to send broadcast to client {}: {}", clientSession.getClientId(), e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Get outbound queue statistics for all clients
+     */
+    public Map<String, Map<String, Object>> getOutboundStats() {
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        clients.forEach((id, session) -> {
+            OutboundQueue queue = session.getHandler().getOutboundQueue();
+            if (queue != null) {
+                result.put(id, queue.getStats());
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Get outbound queue of a client, null if it is unknown or not accepted
+     */
+    public OutboundQueue getOutboundQueue(String clientId) {
+        ClientSession clientSession = clients.get(clientId);
+        return clientSession != null ? clientSession.getHandler().getOutboundQueue() : null;
     }
     
     /**
@@ -159,10 +334,8 @@ public class ClientManager {
      * Get automation service client ID
      */
     public String getAutomationServiceClient() {
-        return getClientsByType(ClientInfo.ClientType.AUTOMATION_SERVICE)
-                .stream()
-                .findFirst()
-                .orElse(null);
+        List<String> services = getClientsByType(ClientInfo.ClientType.AUTOMATION_SERVICE);
+        return services.isEmpty() ? null : services.get(0);
     }
     
     /**
@@ -186,6 +359,23 @@ public class ClientManager {
         listeners.remove(listener);
     }
     
+    // Index maintenance, callers hold indexLock
+    private void addToIndex(ClientSession clientSession) {
+        ClientInfo.ClientType type = clientSession.getClientInfo().getType();
+        if (type != null) {
+            typeIndex.set(type.ordinal(), typeIndex.get(type.ordinal()).with(clientSession));
+        }
+        clientSession.indexedType = type;
+    }
+    
+    private void removeFromIndex(ClientSession clientSession) {
+        ClientInfo.ClientType type = clientSession.indexedType;
+        if (type != null) {
+            typeIndex.set(type.ordinal(), typeIndex.get(type.ordinal()).without(clientSession));
+        }
+        clientSession.indexedType = null;
+    }
+    
     // Notification methods
     private void notifyClientConnected(String clientId, ClientInfo clientInfo) {
         listeners.forEach(listener -> {
@@ -197,6 +387,16 @@ public class ClientManager {
         });
     }
     
+    private void notifyClientUpdated(String clientId, ClientInfo clientInfo) {
+        listeners.forEach(listener -> {
+            try {
+                listener.onClientUpdated(clientId, clientInfo);
+            } catch (Exception e) {
+                logger.error("Error notifying listener of client update", e);
+            }
+        });
+    }
+    
     private void notifyClientDisconnected(String clientId, ClientInfo clientInfo) {
         listeners.forEach(listener -> {
             try {
@@ -211,24 +411,75 @@ public class ClientManager {
      * Client session wrapper
      */
     private static class ClientSession {
+        private final String clientId;
         private final Session session;
-        private ClientInfo clientInfo;
+        private final AutomationWebSocketHandler handler;
+        private volatile ClientInfo clientInfo;
+        // Type under which the session is currently indexed, guarded by indexLock
+        private ClientInfo.ClientType indexedType;
         
-        public ClientSession(Session session, ClientInfo clientInfo) {
+        public ClientSession(String clientId, Session session, ClientInfo clientInfo, AutomationWebSocketHandler handler) {
+            this.clientId = clientId;
             this.session = session;
             this.clientInfo = clientInfo;
+            this.handler = handler;
         }
         
+        public String getClientId() { return clientId; }
         public Session getSession() { return session; }
+        public AutomationWebSocketHandler getHandler() { return handler; }
         public ClientInfo getClientInfo() { return clientInfo; }
         public void setClientInfo(ClientInfo clientInfo) { this.clientInfo = clientInfo; }
     }
     
+    /**
+     * Immutable snapshot of the clients of one type
+     */
+    private static class TypeIndex {
+        static final TypeIndex EMPTY = new TypeIndex(new ClientSession[0]);
+        
+        final ClientSession[] sessions;
+        final List<String> ids;
+        
+        TypeIndex(ClientSession[] sessions) {
+            this.sessions = sessions;
+            String[] idArray = new String[sessions.length];
+            for (int i = 0; i < sessions.length; i++) {
+                idArray[i] = sessions[i].getClientId();
+            }
+            this.ids = List.of(idArray);
+        }
+        
+        TypeIndex with(ClientSession clientSession) {
+            ClientSession[] updated = Arrays.copyOf(sessions, sessions.length + 1);
+            updated[sessions.length] = clientSession;
+            return new TypeIndex(updated);
+        }
+        
+        TypeIndex without(ClientSession clientSession) {
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] == clientSession) {
+                    ClientSession[] updated = new ClientSession[sessions.length - 1];
+                    System.arraycopy(sessions, 0, updated, 0, i);
+                    System.arraycopy(sessions, i + 1, updated, i, sessions.length - i - 1);
+                    return new TypeIndex(updated);
+                }
+            }
+            return this;
+        }
+    }
+    
     /**
      * Listener interface for client events
      */
     public interface ClientManagerListener {
         void onClientConnected(String clientId, ClientInfo clientInfo);
         void onClientDisconnected(String clientId, ClientInfo clientInfo);
+        
+        /**
+         * Called after a client's info changed, e.g. type and status on authentication
+         */
+        default void onClientUpdated(String clientId, ClientInfo clientInfo) {
+        }
     }
 }
\ No newline at end of file
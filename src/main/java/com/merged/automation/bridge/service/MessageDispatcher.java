@@ -0,0 +1,122 @@
+package com.merged.automation.bridge.service;
+
+import com.merged.automation.bridge.config.BridgeConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves inbound message processing off the Jetty I/O threads.
+ * Each session gets its own {@link SerialExecutor} on top of the shared worker
+ * pool, which keeps per-client ordering while different clients run in parallel.
+ */
+public class MessageDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MessageDispatcher.class);
+
+    private static final int MAX_TASKS_PER_RUN = 32;
+
+    private final Mode mode;
+    private final ExecutorService workers;
+
+    public MessageDispatcher(BridgeConfig config) {
+        Mode requestedMode = config.getDispatchMode();
+        ExecutorService executor = null;
+
+        if (requestedMode == Mode.VIRTUAL) {
+            executor = createVirtualThreadExecutor();
+            if (executor == null) {
+                logger.warn("Virtual threads are not available on this JVM, falling back to platform worker threads");
+                requestedMode = Mode.PLATFORM;
+            }
+        }
+
+        if (requestedMode == Mode.PLATFORM) {
+            executor = createPlatformExecutor(config.getDispatchWorkerThreads());
+        }
+
+        this.mode = requestedMode;
+        this.workers = executor;
+        logger.info("Message dispatcher started in {} mode", mode);
+    }
+
+    /**
+     * Create an ordered executor for a single client session
+     */
+    public SerialExecutor newSerialExecutor(String clientId) {
+        return newSerialExecutor(clientId, () -> { });
+    }
+
+    /**
+     * @param onDropped run when queued tasks are dropped because the workers rejected them
+     */
+    public SerialExecutor newSerialExecutor(String clientId, Runnable onDropped) {
+        Executor delegate = mode == Mode.INLINE ? Runnable::run : workers;
+        return new SerialExecutor(clientId, delegate, MAX_TASKS_PER_RUN, onDropped);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Stop accepting work and wait briefly for in-flight messages
+     */
+    public void shutdown() {
+        if (workers == null) {
+            return;
+        }
+
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService createPlatformExecutor(int threads) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "rpc-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        // Looked up reflectively so the server still builds and runs on JDK 11
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Where inbound messages are processed
+     */
+    public enum Mode {
+        /** Fixed pool of platform threads, one per core by default */
+        PLATFORM,
+        /** One virtual thread per task (JDK 21+) */
+        VIRTUAL,
+        /** On the Jetty callback thread, as before */
+        INLINE
+    }
+}
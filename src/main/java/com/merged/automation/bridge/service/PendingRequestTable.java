@@ -0,0 +1,214 @@
+package com.merged.automation.bridge.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * In-flight table for requests forwarded to another client.
+ * Each forwarded request gets a bridge-unique id; the reply carrying that id is
+ * matched back to the originating client and its original request id.
+ */
+public class PendingRequestTable {
+    private static final Logger logger = LoggerFactory.getLogger(PendingRequestTable.class);
+
+    private static final String ID_PREFIX = "bridge-";
+
+    private final Map<String, PendingRequest> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> outstandingByTarget = new ConcurrentHashMap<>();
+    private final Map<String, MethodStats> methodStats = new ConcurrentHashMap<>();
+    private final AtomicLong idSequence = new AtomicLong();
+    private final HashedTimingWheel timingWheel;
+
+    public PendingRequestTable(HashedTimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    /**
+     * Record a request that is about to be forwarded. Must be called before the
+     * request is sent so a fast reply cannot overtake the registration.
+     */
+    public PendingRequest register(String originClientId, String originalId, String targetClientId,
+                                   String method, long timeoutMillis, Consumer<PendingRequest> onTimeout) {
+        String bridgeId = ID_PREFIX + idSequence.incrementAndGet();
+        PendingRequest pending = new PendingRequest(bridgeId, originalId, originClientId, targetClientId, method);
+
+        inFlight.put(bridgeId, pending);
+        outstandingByTarget.computeIfAbsent(targetClientId, id -> new AtomicInteger()).incrementAndGet();
+        pending.timeout = timingWheel.schedule(() -> {
+            if (remove(bridgeId) != null) {
+                statsFor(method).timeouts.increment();
+                logger.warn("Request {} ({}) to {} timed out after {} ms", originalId, method, targetClientId, timeoutMillis);
+                onTimeout.accept(pending);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        return pending;
+    }
+
+    /**
+     * Match a reply to its pending request.
+     *
+     * @return the pending request, or null if the id is unknown, already
+     *         completed or timed out, or the reply came from a different client
+     */
+    public PendingRequest complete(String bridgeId, String fromClientId, boolean error) {
+        if (bridgeId == null) {
+            return null;
+        }
+
+        PendingRequest pending = inFlight.get(bridgeId);
+        if (pending == null || !pending.targetClientId.equals(fromClientId)) {
+            return null;
+        }
+
+        if (remove(bridgeId) == null) {
+            return null;
+        }
+
+        long micros = (System.nanoTime() - pending.startNanos) / 1000;
+        statsFor(pending.method).record(micros, error);
+        return pending;
+    }
+
+    /**
+     * Drop a request that could not be sent
+     */
+    public void cancel(String bridgeId) {
+        remove(bridgeId);
+    }
+
+    /**
+     * Remove all requests waiting on a client, e.g. because it disconnected
+     */
+    public List<PendingRequest> removeByTarget(String targetClientId) {
+        List<PendingRequest> removed = new ArrayList<>();
+        inFlight.values().forEach(pending -> {
+            if (pending.targetClientId.equals(targetClientId) && remove(pending.bridgeId) != null) {
+                removed.add(pending);
+            }
+        });
+        outstandingByTarget.remove(targetClientId);
+        return removed;
+    }
+
+    /**
+     * Number of requests currently waiting on a reply from the given client
+     */
+    public int getOutstanding(String targetClientId) {
+        AtomicInteger count = outstandingByTarget.get(targetClientId);
+        return count != null ? count.get() : 0;
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Pending counts and per-method round-trip statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", inFlight.size());
+
+        Map<String, Integer> byTarget = new LinkedHashMap<>();
+        outstandingByTarget.forEach((id, count) -> byTarget.put(id, count.get()));
+        stats.put("pendingByTarget", byTarget);
+
+        Map<String, Object> byMethod = new LinkedHashMap<>();
+        methodStats.forEach((method, methodStat) -> byMethod.put(method, methodStat.toMap()));
+        stats.put("methods", byMethod);
+        return stats;
+    }
+
+    private PendingRequest remove(String bridgeId) {
+        PendingRequest pending = inFlight.remove(bridgeId);
+        if (pending != null) {
+            if (pending.timeout != null) {
+                pending.timeout.cancel();
+            }
+            AtomicInteger count = outstandingByTarget.get(pending.targetClientId);
+            if (count != null) {
+                count.decrementAndGet();
+            }
+        }
+        return pending;
+    }
+
+    private MethodStats statsFor(String method) {
+        return methodStats.computeIfAbsent(method, m -> new MethodStats());
+    }
+
+    /**
+     * A request forwarded on behalf of a client
+     */
+    public static class PendingRequest {
+        private final String bridgeId;
+        private final String originalId;
+        private final String originClientId;
+        private final String targetClientId;
+        private final String method;
+        private final long startNanos;
+        private volatile HashedTimingWheel.Timeout timeout;
+        private volatile Object context;
+
+        PendingRequest(String bridgeId, String originalId, String originClientId, String targetClientId, String method) {
+            this.bridgeId = bridgeId;
+            this.originalId = originalId;
+            this.originClientId = originClientId;
+            this.targetClientId = targetClientId;
+            this.method = method;
+            this.startNanos = System.nanoTime();
+        }
+
+        public String getBridgeId() { return bridgeId; }
+        public String getOriginalId() { return originalId; }
+        public String getOriginClientId() { return originClientId; }
+        public String getTargetClientId() { return targetClientId; }
+        public String getMethod() { return method; }
+
+        /**
+         * State the forwarding side needs when the reply arrives, null if none was set
+         */
+        public Object getContext() { return context; }
+        public void setContext(Object context) { this.context = context; }
+    }
+
+    private static class MethodStats {
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long micros, boolean error) {
+            completed.increment();
+            if (error) {
+                errors.increment();
+            }
+            totalMicros.add(micros);
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long count = completed.sum();
+            map.put("completed", count);
+            map.put("errors", errors.sum());
+            map.put("timeouts", timeouts.sum());
+            map.put("avgRoundTripMicros", count > 0 ? totalMicros.sum() / count : 0);
+            map.put("maxRoundTripMicros", maxMicros.get());
+            return map;
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.merged.automation.bridge.service;
 
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.AuthenticateParams;
+import com.merged.automation.bridge.model.BatchingParams;
 import com.merged.automation.bridge.model.ClientInfo;
 import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.model.VncChannelParams;
+import com.merged.automation.bridge.routing.LoadBalancer;
+import com.merged.automation.bridge.routing.ServiceShardRouter;
+import com.merged.automation.bridge.websocket.OutboundQueue;
+import com.merged.automation.bridge.websocket.VncRelay;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Processes RPC messages and routes them between clients
@@ -13,25 +22,95 @@ import java.util.*;
 public class RpcProcessor {
     private static final Logger logger = LoggerFactory.getLogger(RpcProcessor.class);
     
+    private static final String VNC_OPEN_CHANNEL = "vnc.open_channel";
+    
     private final ClientManager clientManager;
     private final Map<String, RpcMethod> methods = new HashMap<>();
+    private final HashedTimingWheel timeoutWheel;
+    private final PendingRequestTable pendingRequests;
+    private final long requestTimeout;
+    private final LoadBalancer schedulerBalancer;
+    private final ServiceShardRouter serviceRouter;
+    private final SubscriptionIndex subscriptions;
+    private final StreamRelay streams;
+    private final VncRelay vncRelay;
+    private final boolean legacyBroadcast;
+    private final boolean groupForwarded;
     
-    public RpcProcessor(ClientManager clientManager) {
+    public RpcProcessor(ClientManager clientManager, BridgeConfig bridgeConfig, VncRelay vncRelay) {
         this.clientManager = clientManager;
+        this.vncRelay = vncRelay;
+        this.requestTimeout = bridgeConfig.getRpcRequestTimeout();
+        this.timeoutWheel = new HashedTimingWheel("rpc-timeout-wheel", 
+            bridgeConfig.getRpcTimeoutTick(), TimeUnit.MILLISECONDS, bridgeConfig.getRpcTimeoutWheelSize());
+        this.pendingRequests = new PendingRequestTable(timeoutWheel);
+        this.schedulerBalancer = bridgeConfig.getSchedulerRoutingStrategy().create(
+            pendingRequests::getOutstanding, 
+            bridgeConfig.getSchedulerRoutingHashKey(), 
+            bridgeConfig.getRoutingVirtualNodes());
+        this.serviceRouter = new ServiceShardRouter(
+            bridgeConfig.getServiceRoutingKeyParams(), 
+            bridgeConfig.getRoutingVirtualNodes());
+        clientManager.addListener(serviceRouter);
+        this.subscriptions = new SubscriptionIndex(
+            bridgeConfig.getSubscriptionKeyParams(), 
+            bridgeConfig.getSubscriptionMaxPerClient());
+        this.streams = new StreamRelay(clientManager, pendingRequests, timeoutWheel,
+            bridgeConfig.getStreamInitialCredits(),
+            bridgeConfig.getStreamMaxCredits(),
+            bridgeConfig.getStreamIdleTimeout());
+        this.legacyBroadcast = bridgeConfig.isSubscriptionLegacyBroadcast();
+        this.groupForwarded = bridgeConfig.isBatchGroupForwarded();
         registerBuiltinMethods();
+        
+        // Fail requests still waiting on a client that goes away
+        clientManager.addListener(new ClientManager.ClientManagerListener() {
+            @Override
+            public void onClientConnected(String clientId, ClientInfo clientInfo) {
+            }
+            
+            @Override
+            public void onClientDisconnected(String clientId, ClientInfo clientInfo) {
+                failPendingRequests(clientId);
+                streams.onClientDisconnected(clientId);
+                subscriptions.unsubscribeAll(clientId);
+            }
+        });
+    }
+    
+    /**
+     * Stop the request timeout wheel
+     */
+    public void shutdown() {
+        timeoutWheel.stop();
     }
     
     /**
      * Process incoming RPC message
      */
     public RpcMessage processMessage(String fromClientId, RpcMessage message) {
+        return processMessage(fromClientId, message, null);
+    }
+    
+    /**
+     * Start processing the messages of a batch frame from a client
+     */
+    public Batch newBatch(String fromClientId) {
+        return new Batch(fromClientId);
+    }
+    
+    /**
+     * @param batch collects forwarded requests instead of sending them, may be null
+     */
+    private RpcMessage processMessage(String fromClientId, RpcMessage message, Batch batch) {
         logger.debug("Processing message from {}: {}", fromClientId, message.getMethod());
         
         try {
             switch (message.getType()) {
                 case REQUEST:
-                    return handleRequest(fromClientId, message);
+                    return handleRequest(fromClientId, message, batch);
                 case RESPONSE:
+                case ERROR:
                     return handleResponse(fromClientId, message);
                 case NOTIFICATION:
                     return handleNotification(fromClientId, message);
@@ -51,7 +130,7 @@ public class RpcProcessor {
     /**
      * Handle RPC request
      */
-    private RpcMessage handleRequest(String fromClientId, RpcMessage request) {
+    private RpcMessage handleRequest(String fromClientId, RpcMessage request, Batch batch) {
         String method = request.getMethod();
         
         if (method == null) {
@@ -60,11 +139,16 @@ public class RpcProcessor {
                 "Missing method name");
         }
         
+        // Relay tickets depend on who owns the device
+        if (VNC_OPEN_CHANNEL.equals(method)) {
+            return openVncChannel(fromClientId, request, batch);
+        }
+        
         // Check for built-in methods
         RpcMethod rpcMethod = methods.get(method);
         if (rpcMethod != null) {
             try {
-                Object result = rpcMethod.invoke(fromClientId, request.getParams());
+                Object result = rpcMethod.invoke(fromClientId, request);
                 return createSuccessResponse(request.getId(), result);
             } catch (Exception e) {
                 logger.error("Error executing method {}: {}", method, e.getMessage(), e);
@@ -75,15 +159,31 @@ public class RpcProcessor {
         }
         
         // Route to appropriate service
-        return routeToService(fromClientId, request);
+        return routeToService(fromClientId, request, batch);
     }
     
     /**
-     * Handle RPC response
+     * Handle RPC response or error by routing it back to the client that made the request
      */
     private RpcMessage handleResponse(String fromClientId, RpcMessage response) {
-        // For now, just log responses
-        logger.debug("Received response from {}: {}", fromClientId, response.getId());
+        boolean error = response.getType() == RpcMessage.MessageType.ERROR;
+        PendingRequestTable.PendingRequest pending = pendingRequests.complete(response.getId(), fromClientId, error);
+        if (pending == null) {
+            logger.debug("Dropping unmatched {} from {}: {}", response.getType(), fromClientId, response.getId());
+            return null;
+        }
+        
+        if (VNC_OPEN_CHANNEL.equals(pending.getMethod()) && !error) {
+            // The owning service approved the viewer; the ticket itself comes from the bridge
+            response = createSuccessResponse(pending.getOriginalId(), 
+                vncRelay.openChannel(pending.getOriginClientId(), (String) pending.getContext(), false));
+        }
+        
+        response.setId(pending.getOriginalId());
+        if (!clientManager.sendMessageToClient(pending.getOriginClientId(), response)) {
+            logger.debug("Requesting client {} is gone, dropping response to {}", 
+                pending.getOriginClientId(), pending.getOriginalId());
+        }
         return null; // No response needed for responses
     }
     
@@ -99,6 +199,18 @@ public class RpcProcessor {
                 return handleClientAuthentication(fromClientId, notification);
             case "automation.status_update":
                 return handleAutomationStatusUpdate(fromClientId, notification);
+            case StreamRelay.OPEN:
+                streams.open(fromClientId, notification);
+                return null;
+            case StreamRelay.CHUNK:
+                streams.chunk(fromClientId, notification);
+                return null;
+            case StreamRelay.CREDIT:
+                streams.credit(fromClientId, notification);
+                return null;
+            case StreamRelay.CANCEL:
+                streams.cancel(fromClientId, notification);
+                return null;
             default:
                 // Broadcast notification to relevant clients
                 broadcastNotification(fromClientId, notification);
@@ -106,20 +218,53 @@ public class RpcProcessor {
         }
     }
     
+    /**
+     * Issue a ticket for the VNC relay of a device. The automation service that
+     * owns the device on the shard ring gets a source ticket. Anyone else is a
+     * viewer: the request goes to the owner with the viewer's id, and a ticket
+     * is issued only if the owner replies with a result rather than an error.
+     */
+    private RpcMessage openVncChannel(String fromClientId, RpcMessage request, Batch batch) {
+        VncChannelParams params = request.getParams(VncChannelParams.class);
+        if (params == null || params.getDeviceId() == null) {
+            return createErrorResponse(request.getId(), 
+                RpcMessage.ErrorCodes.INVALID_PARAMS, 
+                "deviceId is required");
+        }
+        
+        String deviceId = params.getDeviceId();
+        String ownerClientId = serviceRouter.getOwner(deviceId);
+        if (ownerClientId == null) {
+            return createErrorResponse(request.getId(), 
+                RpcMessage.ErrorCodes.CLIENT_NOT_FOUND, 
+                "AutomationService not connected");
+        }
+        if (ownerClientId.equals(fromClientId)) {
+            return createSuccessResponse(request.getId(), vncRelay.openChannel(fromClientId, deviceId, true));
+        }
+        
+        Map<String, Object> approvalParams = new LinkedHashMap<>();
+        approvalParams.put("deviceId", deviceId);
+        approvalParams.put("viewerId", fromClientId);
+        RpcMessage approval = new RpcMessage(request.getId(), RpcMessage.MessageType.REQUEST);
+        approval.setMethod(VNC_OPEN_CHANNEL);
+        approval.setParams(approvalParams);
+        return forwardRequest(fromClientId, ownerClientId, approval, batch, deviceId);
+    }
+    
     /**
      * Route request to appropriate service
      */
-    private RpcMessage routeToService(String fromClientId, RpcMessage request) {
+    private RpcMessage routeToService(String fromClientId, RpcMessage request, Batch batch) {
         String method = request.getMethod();
         
         // Determine target service based on method
-        if (method.startsWith("automation.")) {
-            // Route to AutomationService
-            String serviceClientId = clientManager.getAutomationServiceClient();
+        if (method.startsWith("automation.") || method.startsWith("vnc.")) {
+            // Route to the AutomationService that owns this device/automation
+            String serviceClientId = serviceRouter.route(request);
             if (serviceClientId != null) {
-                clientManager.sendMessageToClient(serviceClientId, request);
                 // Response will come back asynchronously
-                return null;
+                return forwardRequest(fromClientId, serviceClientId, request, batch);
             } else {
                 return createErrorResponse(request.getId(), 
                     RpcMessage.ErrorCodes.CLIENT_NOT_FOUND, 
@@ -129,9 +274,8 @@ public class RpcProcessor {
             // Route to AutomationScheduler
             List<String> schedulerClients = clientManager.getAutomationSchedulerClients();
             if (!schedulerClients.isEmpty()) {
-                // Send to first available scheduler
-                clientManager.sendMessageToClient(schedulerClients.get(0), request);
-                return null;
+                String schedulerClientId = schedulerBalancer.select(schedulerClients, request);
+                return forwardRequest(fromClientId, schedulerClientId, request, batch);
             } else {
                 return createErrorResponse(request.getId(), 
                     RpcMessage.ErrorCodes.CLIENT_NOT_FOUND, 
@@ -144,18 +288,71 @@ public class RpcProcessor {
             "Unknown method: " + method);
     }
     
+    /**
+     * Forward request to another client and track it until the reply arrives or it times out
+     */
+    private RpcMessage forwardRequest(String fromClientId, String targetClientId, RpcMessage request, Batch batch) {
+        return forwardRequest(fromClientId, targetClientId, request, batch, null);
+    }
+    
+    /**
+     * @param context kept with the pending request for handling the reply, may be null
+     */
+    private RpcMessage forwardRequest(String fromClientId, String targetClientId, RpcMessage request, Batch batch, 
+                                      Object context) {
+        String originalId = request.getId();
+        PendingRequestTable.PendingRequest pending = pendingRequests.register(
+            fromClientId, originalId, targetClientId, request.getMethod(), requestTimeout, this::onRequestTimeout);
+        pending.setContext(context);
+        
+        request.setId(pending.getBridgeId());
+        if (batch != null) {
+            batch.addForward(targetClientId, request, pending);
+            return null;
+        }
+        if (!clientManager.sendMessageToClient(targetClientId, request)) {
+            pendingRequests.cancel(pending.getBridgeId());
+            return createErrorResponse(originalId, 
+                RpcMessage.ErrorCodes.SERVER_ERROR, 
+                "Failed to forward request to " + targetClientId);
+        }
+        return null;
+    }
+    
+    /**
+     * Tell the requesting client that its forwarded request got no reply in time
+     */
+    private void onRequestTimeout(PendingRequestTable.PendingRequest pending) {
+        RpcMessage error = createErrorResponse(pending.getOriginalId(), 
+            RpcMessage.ErrorCodes.TIMEOUT, 
+            "Request timed out after " + requestTimeout + " ms: " + pending.getMethod());
+        clientManager.sendMessageToClient(pending.getOriginClientId(), error);
+    }
+    
+    /**
+     * Fail all requests waiting on a disconnected client
+     */
+    private void failPendingRequests(String targetClientId) {
+        for (PendingRequestTable.PendingRequest pending : pendingRequests.removeByTarget(targetClientId)) {
+            RpcMessage error = createErrorResponse(pending.getOriginalId(), 
+                RpcMessage.ErrorCodes.CLIENT_NOT_FOUND, 
+                "Target client disconnected: " + pending.getMethod());
+            clientManager.sendMessageToClient(pending.getOriginClientId(), error);
+        }
+    }
+    
     /**
      * Handle client authentication
      */
     private RpcMessage handleClientAuthentication(String clientId, RpcMessage notification) {
-        Map<String, Object> params = notification.getParams();
+        AuthenticateParams params = notification.getParams(AuthenticateParams.class);
         if (params == null) {
             return null;
         }
         
-        String clientType = (String) params.get("type");
-        String clientName = (String) params.get("name");
-        String version = (String) params.get("version");
+        String clientType = params.getType();
+        String clientName = params.getName();
+        String version = params.getVersion();
         
         // Update client info
         ClientInfo clientInfo = clientManager.getClientInfo(clientId);
@@ -177,8 +374,8 @@ public class RpcProcessor {
      * Handle automation status updates
      */
     private RpcMessage handleAutomationStatusUpdate(String fromClientId, RpcMessage notification) {
-        // Broadcast status update to all scheduler clients
-        clientManager.broadcastToType(ClientInfo.ClientType.AUTOMATION_SCHEDULER, notification);
+        // Deliver status update to interested schedulers
+        publish(notification, ClientInfo.ClientType.AUTOMATION_SCHEDULER);
         return null;
     }
     
@@ -193,26 +390,48 @@ public class RpcProcessor {
         switch (fromClient.getType()) {
             case AUTOMATION_SERVICE:
                 // Broadcast to all schedulers
-                clientManager.broadcastToType(ClientInfo.ClientType.AUTOMATION_SCHEDULER, notification);
+                publish(notification, ClientInfo.ClientType.AUTOMATION_SCHEDULER);
                 break;
             case AUTOMATION_SCHEDULER:
                 // Broadcast to service and other schedulers
-                clientManager.broadcastToType(ClientInfo.ClientType.AUTOMATION_SERVICE, notification);
-                clientManager.broadcastToType(ClientInfo.ClientType.AUTOMATION_SCHEDULER, notification);
+                publish(notification, ClientInfo.ClientType.AUTOMATION_SERVICE, ClientInfo.ClientType.AUTOMATION_SCHEDULER);
                 break;
             default:
                 // Broadcast to all
-                clientManager.broadcastToAll(notification);
+                publish(notification, ClientInfo.ClientType.values());
                 break;
         }
     }
     
+    /**
+     * Deliver a notification to the clients subscribed to it. With legacy broadcast
+     * enabled, clients of the given types that hold no subscriptions get it too.
+     */
+    private void publish(RpcMessage notification, ClientInfo.ClientType... legacyTypes) {
+        Set<String> recipients = new LinkedHashSet<>();
+        subscriptions.match(notification, recipients);
+        
+        if (legacyBroadcast) {
+            for (ClientInfo.ClientType type : legacyTypes) {
+                for (String clientId : clientManager.getClientsByType(type)) {
+                    if (!subscriptions.hasSubscriptions(clientId)) {
+                        recipients.add(clientId);
+                    }
+                }
+            }
+        }
+        
+        if (!recipients.isEmpty()) {
+            clientManager.multicast(recipients, notification);
+        }
+    }
+    
     /**
      * Register built-in RPC methods
      */
     private void registerBuiltinMethods() {
         // Server status
-        methods.put("server.status", (clientId, params) -> {
+        methods.put("server.status", (clientId, request) -> {
             Map<String, Object> status = new HashMap<>();
             status.put("uptime", System.currentTimeMillis());
             status.put("clients", clientManager.getAllClients().size());
@@ -221,14 +440,65 @@ public class RpcProcessor {
         });
         
         // List clients
-        methods.put("server.list_clients", (clientId, params) -> {
+        methods.put("server.list_clients", (clientId, request) -> {
             return clientManager.getAllClients();
         });
         
         // Ping
-        methods.put("server.ping", (clientId, params) -> {
+        methods.put("server.ping", (clientId, request) -> {
             return Map.of("pong", System.currentTimeMillis());
         });
+        
+        // Topic subscriptions
+        methods.put("subscription.subscribe", (clientId, request) -> {
+            SubscriptionIndex.Topic topic = subscriptions.parseTopic(request.getParams());
+            if (topic == null) {
+                throw new IllegalArgumentException("Invalid topic: expected method pattern and optional key");
+            }
+            if (!subscriptions.subscribe(clientId, topic)) {
+                throw new IllegalStateException("Subscription limit reached");
+            }
+            return Map.of("subscribed", topic.toString(), "subscriptions", subscriptions.countFor(clientId));
+        });
+        
+        methods.put("subscription.unsubscribe", (clientId, request) -> {
+            SubscriptionIndex.Topic topic = subscriptions.parseTopic(request.getParams());
+            if (topic == null) {
+                subscriptions.unsubscribeAll(clientId);
+                return Map.of("subscriptions", 0);
+            }
+            subscriptions.unsubscribe(clientId, topic);
+            return Map.of("unsubscribed", topic.toString(), "subscriptions", subscriptions.countFor(clientId));
+        });
+        
+        // Outbound coalescing for the calling client
+        methods.put("client.set_batching", (clientId, request) -> {
+            OutboundQueue queue = clientManager.getOutboundQueue(clientId);
+            if (queue == null) {
+                throw new IllegalStateException("Client has no outbound queue");
+            }
+            BatchingParams params = request.getParams(BatchingParams.class);
+            if (params == null) {
+                params = new BatchingParams();
+            }
+            boolean enabled = !Boolean.FALSE.equals(params.getEnabled());
+            long maxDelayMicros = params.getMaxDelayMs() != null 
+                ? (long) (params.getMaxDelayMs() * 1000) : Long.MAX_VALUE;
+            int maxMessages = params.getMaxMessages() != null ? params.getMaxMessages() : Integer.MAX_VALUE;
+            return queue.setCoalescing(enabled, maxDelayMicros, maxMessages);
+        });
+        
+        // Transport metrics
+        methods.put("server.metrics", (clientId, request) -> {
+            Map<String, Object> metrics = new HashMap<>();
+            metrics.put("outbound", clientManager.getOutboundStats());
+            metrics.put("rpc", pendingRequests.getStats());
+            metrics.put("serviceShards", serviceRouter.getMembers());
+            metrics.put("subscriptions", subscriptions.getStats());
+            metrics.put("streams", streams.getStats());
+            metrics.put("vnc", vncRelay.getStats());
+            return metrics;
+        });
     }
     
     /**
@@ -249,11 +519,65 @@ public class RpcProcessor {
         return response;
     }
     
+    /**
+     * Messages of one batch frame, processed in order. Requests they forward are
+     * held back and sent to each target as a single batch by {@link #flush()}.
+     */
+    public class Batch {
+        private final String fromClientId;
+        private final Map<String, List<RpcMessage>> forwardsByTarget = new LinkedHashMap<>();
+        private final Map<String, List<PendingRequestTable.PendingRequest>> pendingByTarget = new HashMap<>();
+        
+        private Batch(String fromClientId) {
+            this.fromClientId = fromClientId;
+        }
+        
+        /**
+         * Process one message of the batch
+         *
+         * @return the local reply, or null if there is none yet
+         */
+        public RpcMessage process(RpcMessage message) {
+            return processMessage(fromClientId, message, groupForwarded ? this : null);
+        }
+        
+        /**
+         * Send the collected forwarded requests, one batch frame per target
+         *
+         * @return error replies for requests that could not be sent
+         */
+        public List<RpcMessage> flush() {
+            List<RpcMessage> errors = new ArrayList<>();
+            forwardsByTarget.forEach((targetClientId, requests) -> {
+                boolean sent = requests.size() == 1 
+                    ? clientManager.sendMessageToClient(targetClientId, requests.get(0))
+                    : clientManager.sendBatchToClient(targetClientId, requests);
+                if (sent) {
+                    return;
+                }
+                for (PendingRequestTable.PendingRequest pending : pendingByTarget.get(targetClientId)) {
+                    pendingRequests.cancel(pending.getBridgeId());
+                    errors.add(createErrorResponse(pending.getOriginalId(), 
+                        RpcMessage.ErrorCodes.SERVER_ERROR, 
+                        "Failed to forward request to " + targetClientId));
+                }
+            });
+            forwardsByTarget.clear();
+            pendingByTarget.clear();
+            return errors;
+        }
+        
+        private void addForward(String targetClientId, RpcMessage request, PendingRequestTable.PendingRequest pending) {
+            forwardsByTarget.computeIfAbsent(targetClientId, id -> new ArrayList<>()).add(request);
+            pendingByTarget.computeIfAbsent(targetClientId, id -> new ArrayList<>()).add(pending);
+        }
+    }
+    
     /**
      * RPC method interface
      */
     @FunctionalInterface
     private interface RpcMethod {
-        Object invoke(String clientId, Map<String, Object> params) throws Exception;
+        Object invoke(String clientId, RpcMessage request) throws Exception;
     }
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package com.merged.automation.bridge.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in submission order, on a shared delegate executor.
+ * At most one drain loop per instance is active, so tasks of one client never
+ * overlap while different clients proceed in parallel.
+ */
+public class SerialExecutor implements Executor {
+    private static final Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final String name;
+    private final Executor delegate;
+    private final int maxTasksPerRun;
+    private final Runnable onDropped;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public SerialExecutor(String name, Executor delegate, int maxTasksPerRun) {
+        this(name, delegate, maxTasksPerRun, () -> { });
+    }
+
+    /**
+     * @param onDropped run after queued tasks were dropped because the delegate rejected the drain loop
+     */
+    public SerialExecutor(String name, Executor delegate, int maxTasksPerRun, Runnable onDropped) {
+        this.name = name;
+        this.delegate = delegate;
+        this.maxTasksPerRun = Math.max(1, maxTasksPerRun);
+        this.onDropped = onDropped;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (pending.getAndIncrement() == 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * Number of tasks submitted but not yet finished
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    private void drain() {
+        for (int i = 0; i < maxTasksPerRun; i++) {
+            Runnable task = tasks.poll();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.error("Task failed in serial executor {}: {}", name, e.getMessage(), e);
+            }
+
+            if (pending.decrementAndGet() == 0) {
+                return;
+            }
+        }
+
+        // Yield the worker so one busy client cannot monopolize it
+        schedule();
+    }
+
+    private void schedule() {
+        try {
+            delegate.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // No drain loop will run, so the queued tasks would stay pending forever
+            int dropped = dropPending();
+            logger.error("Serial executor {} was rejected by its delegate, dropped {} tasks", name, dropped, e);
+            onDropped.run();
+        }
+    }
+
+    /**
+     * Discard queued tasks until none are pending, so the next task submitted starts a new drain loop
+     */
+    private int dropPending() {
+        int dropped = 0;
+        do {
+            if (tasks.poll() != null) {
+                dropped++;
+            }
+        } while (pending.decrementAndGet() > 0);
+        return dropped;
+    }
+}
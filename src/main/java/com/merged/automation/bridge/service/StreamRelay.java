@@ -0,0 +1,346 @@
+package com.merged.automation.bridge.service;
+
+import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.model.StreamChunkParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays chunked streams for results too large for one message.
+ * A client answering a forwarded request opens a stream instead of replying,
+ * then sends the result as numbered chunks, each an ordinary message within
+ * the frame size limit. Every chunk is passed on to the requester as soon as
+ * it arrives, so the bridge holds at most the chunks in flight, never the
+ * whole result. The requester grants credits, one per chunk; a sender that
+ * sends without credits or out of order has its stream cancelled.
+ * A message the receiver's outbound queue refuses while the receiver is still
+ * connected is held back and retried, with later chunks queued behind it, so
+ * backpressure slows a stream down instead of breaking it.
+ * Stream messages carry the stream id as their message id, so chunks are
+ * relayed with only the id swapped. Their seq and final flag are bound once,
+ * when the chunk is validated, and their data is never decoded.
+ */
+public class StreamRelay {
+    private static final Logger logger = LoggerFactory.getLogger(StreamRelay.class);
+
+    public static final String OPEN = "stream.open";
+    public static final String CHUNK = "stream.chunk";
+    public static final String CREDIT = "stream.credit";
+    public static final String CANCEL = "stream.cancel";
+
+    private static final String ID_PREFIX = "stream-";
+
+    // How long held back messages wait before the receiver's queue is tried again
+    private static final long RETRY_DELAY_MILLIS = 50;
+
+    private final ClientManager clientManager;
+    private final PendingRequestTable pendingRequests;
+    private final HashedTimingWheel timingWheel;
+    private final int initialCredits;
+    private final int maxCredits;
+    private final long idleTimeout;
+
+    // Streams by sender and the sender's stream id, and by the id the receiver sees
+    private final Map<String, Stream> bySource = new ConcurrentHashMap<>();
+    private final Map<String, Stream> byRelayId = new ConcurrentHashMap<>();
+    private final AtomicLong idSequence = new AtomicLong();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+
+    /**
+     * @param initialCredits chunks a sender may send before the receiver grants more
+     * @param maxCredits most credits a stream can hold, bounding the chunks in flight
+     * @param idleTimeout milliseconds without chunks or credits after which a stream is cancelled
+     */
+    public StreamRelay(ClientManager clientManager, PendingRequestTable pendingRequests,
+                       HashedTimingWheel timingWheel, int initialCredits, int maxCredits, long idleTimeout) {
+        this.clientManager = clientManager;
+        this.pendingRequests = pendingRequests;
+        this.timingWheel = timingWheel;
+        this.initialCredits = initialCredits;
+        this.maxCredits = maxCredits;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Open a stream answering a forwarded request; params.requestId is the id the request was forwarded with
+     */
+    public void open(String fromClientId, RpcMessage open) {
+        String sourceStreamId = open.getId();
+        String sourceKey = sourceKey(fromClientId, sourceStreamId);
+        if (bySource.containsKey(sourceKey)) {
+            sendCancel(fromClientId, sourceStreamId, "Stream id already in use");
+            return;
+        }
+
+        Object requestId = open.getParam("requestId");
+        PendingRequestTable.PendingRequest pending = requestId instanceof String
+            ? pendingRequests.complete((String) requestId, fromClientId, false) : null;
+        if (pending == null) {
+            sendCancel(fromClientId, sourceStreamId, "Unknown request: " + requestId);
+            return;
+        }
+
+        Stream stream = new Stream(fromClientId, sourceStreamId, pending.getOriginClientId(),
+            ID_PREFIX + idSequence.incrementAndGet(), initialCredits);
+        bySource.put(sourceKey, stream);
+        byRelayId.put(stream.relayId, stream);
+        opened.increment();
+
+        // The receiver sees its own request id and the credits the sender starts with
+        Map<String, Object> params = open.getParams() != null ? new LinkedHashMap<>(open.getParams()) : new LinkedHashMap<>();
+        params.put("requestId", pending.getOriginalId());
+        params.put("method", pending.getMethod());
+        params.put("credits", initialCredits);
+        RpcMessage relayed = new RpcMessage(stream.relayId, RpcMessage.MessageType.NOTIFICATION);
+        relayed.setMethod(OPEN);
+        relayed.setParams(params);
+        logger.debug("Stream {} opened from {} to {} for {}", stream.relayId, fromClientId,
+            stream.targetClientId, pending.getMethod());
+        scheduleIdleCheck(stream, idleTimeout);
+        deliver(stream, relayed);
+    }
+
+    /**
+     * Pass a chunk on to the receiver; params carry seq, data and final
+     */
+    public void chunk(String fromClientId, RpcMessage chunk) {
+        Stream stream = bySource.get(sourceKey(fromClientId, chunk.getId()));
+        if (stream == null) {
+            sendCancel(fromClientId, chunk.getId(), "Unknown stream");
+            return;
+        }
+
+        StreamChunkParams params = chunk.getParams(StreamChunkParams.class);
+        Long seq = params != null ? params.getSeq() : null;
+        if (seq == null || seq != stream.nextSeq) {
+            cancel(stream, "Expected chunk " + stream.nextSeq + " but got " + seq, true, true);
+            return;
+        }
+        if (stream.credits.getAndDecrement() <= 0) {
+            cancel(stream, "Chunk sent without credit", true, true);
+            return;
+        }
+
+        stream.nextSeq++;
+        stream.touch();
+        chunks.increment();
+
+        chunk.setId(stream.relayId);
+        deliver(stream, chunk);
+    }
+
+    /**
+     * Pass credits granted by the receiver on to the sender; params.credits is the number of further chunks
+     */
+    public void credit(String fromClientId, RpcMessage credit) {
+        Stream stream = byRelayId.get(credit.getId());
+        if (stream == null || !stream.targetClientId.equals(fromClientId)) {
+            return;
+        }
+
+        Object granted = credit.getParam("credits");
+        if (!(granted instanceof Number) || ((Number) granted).intValue() <= 0) {
+            return;
+        }
+        stream.credits.accumulateAndGet(((Number) granted).intValue(),
+            (current, added) -> (int) Math.min(maxCredits, (long) current + added));
+        stream.touch();
+
+        credit.setId(stream.sourceStreamId);
+        clientManager.sendMessageToClient(stream.sourceClientId, credit);
+    }
+
+    /**
+     * Cancel a stream from either end; the other end is told
+     */
+    public void cancel(String fromClientId, RpcMessage cancel) {
+        Stream stream = bySource.get(sourceKey(fromClientId, cancel.getId()));
+        boolean fromSource = stream != null;
+        if (stream == null) {
+            stream = byRelayId.get(cancel.getId());
+            if (stream == null || !stream.targetClientId.equals(fromClientId)) {
+                return;
+            }
+        }
+
+        Object reason = cancel.getParam("reason");
+        cancel(stream, reason != null ? reason.toString() : "Cancelled", !fromSource, fromSource);
+    }
+
+    /**
+     * Cancel all streams a client sends or receives
+     */
+    public void onClientDisconnected(String clientId) {
+        bySource.values().forEach(stream -> {
+            if (stream.sourceClientId.equals(clientId)) {
+                cancel(stream, "Sender disconnected", false, true);
+            } else if (stream.targetClientId.equals(clientId)) {
+                cancel(stream, "Receiver disconnected", true, false);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("open", byRelayId.size());
+        stats.put("opened", opened.sum());
+        stats.put("completed", completed.sum());
+        stats.put("cancelled", cancelled.sum());
+        stats.put("chunks", chunks.sum());
+        return stats;
+    }
+
+    private void cancel(Stream stream, String reason, boolean notifySource, boolean notifyTarget) {
+        if (!remove(stream)) {
+            return;
+        }
+        cancelled.increment();
+        logger.debug("Stream {} cancelled: {}", stream.relayId, reason);
+        if (notifySource) {
+            sendCancel(stream.sourceClientId, stream.sourceStreamId, reason);
+        }
+        if (notifyTarget) {
+            sendCancel(stream.targetClientId, stream.relayId, reason);
+        }
+    }
+
+    /**
+     * Send a message to the receiver, or hold it back while the receiver's outbound queue is full
+     */
+    private void deliver(Stream stream, RpcMessage message) {
+        synchronized (stream) {
+            if (stream.heldBack.isEmpty() && send(stream, message)) {
+                return;
+            }
+            if (!clientManager.isClientConnected(stream.targetClientId)) {
+                cancel(stream, "Receiver unavailable", true, false);
+                return;
+            }
+            stream.heldBack.add(message);
+            if (stream.heldBack.size() == 1) {
+                scheduleRetry(stream);
+            }
+        }
+    }
+
+    private void scheduleRetry(Stream stream) {
+        timingWheel.schedule(() -> retry(stream), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send held back messages in order until the receiver's queue refuses one again
+     */
+    private void retry(Stream stream) {
+        synchronized (stream) {
+            if (!byRelayId.containsKey(stream.relayId)) {
+                stream.heldBack.clear();
+                return;
+            }
+            RpcMessage message;
+            while ((message = stream.heldBack.peek()) != null) {
+                if (!send(stream, message)) {
+                    if (clientManager.isClientConnected(stream.targetClientId)) {
+                        scheduleRetry(stream);
+                    } else {
+                        cancel(stream, "Receiver unavailable", true, false);
+                    }
+                    return;
+                }
+                stream.heldBack.poll();
+            }
+        }
+    }
+
+    /**
+     * @return false if the receiver's outbound queue refused the message
+     */
+    private boolean send(Stream stream, RpcMessage message) {
+        if (!clientManager.sendMessageToClient(stream.targetClientId, message)) {
+            return false;
+        }
+        if (CHUNK.equals(message.getMethod()) && isLastChunk(message) && remove(stream)) {
+            completed.increment();
+            logger.debug("Stream {} completed after {} chunks", stream.relayId, stream.nextSeq);
+        }
+        return true;
+    }
+
+    private static boolean isLastChunk(RpcMessage chunk) {
+        StreamChunkParams params = chunk.getParams(StreamChunkParams.class);
+        return params != null && params.isLast();
+    }
+
+    private void sendCancel(String clientId, String streamId, String reason) {
+        RpcMessage cancel = new RpcMessage(streamId, RpcMessage.MessageType.NOTIFICATION);
+        cancel.setMethod(CANCEL);
+        cancel.setParams(Map.of("reason", reason));
+        clientManager.sendMessageToClient(clientId, cancel);
+    }
+
+    /**
+     * @return false if the stream was already removed
+     */
+    private boolean remove(Stream stream) {
+        if (byRelayId.remove(stream.relayId) == null) {
+            return false;
+        }
+        bySource.remove(sourceKey(stream.sourceClientId, stream.sourceStreamId));
+        return true;
+    }
+
+    private void scheduleIdleCheck(Stream stream, long delayMillis) {
+        timingWheel.schedule(() -> {
+            if (!byRelayId.containsKey(stream.relayId)) {
+                return;
+            }
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stream.lastActivityNanos);
+            if (idleMillis >= idleTimeout) {
+                cancel(stream, "Stream idle for " + idleMillis + " ms", true, true);
+            } else {
+                scheduleIdleCheck(stream, idleTimeout - idleMillis);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static String sourceKey(String clientId, String streamId) {
+        return clientId + '\n' + streamId;
+    }
+
+    private static final class Stream {
+        private final String sourceClientId;
+        private final String sourceStreamId;
+        private final String targetClientId;
+        private final String relayId;
+        private final AtomicInteger credits;
+        // Messages the receiver's queue refused, oldest first; guarded by the stream
+        private final ArrayDeque<RpcMessage> heldBack = new ArrayDeque<>();
+        // Only touched by the sender's serial executor
+        private long nextSeq;
+        private volatile long lastActivityNanos = System.nanoTime();
+
+        Stream(String sourceClientId, String sourceStreamId, String targetClientId, String relayId, int credits) {
+            this.sourceClientId = sourceClientId;
+            this.sourceStreamId = sourceStreamId;
+            this.targetClientId = targetClientId;
+            this.relayId = relayId;
+            this.credits = new AtomicInteger(credits);
+        }
+
+        void touch() {
+            lastActivityNanos = System.nanoTime();
+        }
+    }
+}
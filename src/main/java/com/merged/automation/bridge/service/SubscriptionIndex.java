@@ -0,0 +1,196 @@
+package com.merged.automation.bridge.service;
+
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of notification topics clients have subscribed to.
+ * A topic is a method pattern ({@code automation.status_update},
+ * {@code automation.*} or {@code *}) plus an optional key filter on one of the
+ * notification params ({@code automationId=42}); a missing key matches any.
+ * Matching a notification costs a fixed number of hash lookups regardless of
+ * how many subscriptions exist.
+ */
+public class SubscriptionIndex {
+    public static final String WILDCARD = "*";
+
+    private final List<String> keyParams;
+    private final int maxPerClient;
+
+    // method pattern -> key filter -> subscribed client ids
+    private final Map<String, Map<String, Set<String>>> index = new ConcurrentHashMap<>();
+    // client id -> its topics, for unsubscribe-all on disconnect
+    private final Map<String, Set<Topic>> byClient = new ConcurrentHashMap<>();
+
+    /**
+     * @param keyParams notification params that can be used as topic keys, e.g. automationId, deviceId
+     * @param maxPerClient upper bound on subscriptions held by one client
+     */
+    public SubscriptionIndex(List<String> keyParams, int maxPerClient) {
+        this.keyParams = List.copyOf(keyParams);
+        this.maxPerClient = maxPerClient;
+    }
+
+    /**
+     * @return false if the client already holds the maximum number of subscriptions
+     */
+    public boolean subscribe(String clientId, Topic topic) {
+        Set<Topic> topics = byClient.computeIfAbsent(clientId, id -> ConcurrentHashMap.newKeySet());
+        if (!topics.contains(topic) && topics.size() >= maxPerClient) {
+            return false;
+        }
+        topics.add(topic);
+        // compute() holds the method's bin lock, so a concurrent removal cannot drop this entry
+        index.compute(topic.methodPattern, (method, byKey) -> {
+            Map<String, Set<String>> keys = byKey != null ? byKey : new ConcurrentHashMap<>();
+            keys.computeIfAbsent(topic.keyFilter, k -> ConcurrentHashMap.newKeySet()).add(clientId);
+            return keys;
+        });
+        return true;
+    }
+
+    public boolean unsubscribe(String clientId, Topic topic) {
+        Set<Topic> topics = byClient.get(clientId);
+        if (topics == null || !topics.remove(topic)) {
+            return false;
+        }
+        removeFromIndex(clientId, topic);
+        return true;
+    }
+
+    public void unsubscribeAll(String clientId) {
+        Set<Topic> topics = byClient.remove(clientId);
+        if (topics != null) {
+            topics.forEach(topic -> removeFromIndex(clientId, topic));
+        }
+    }
+
+    public boolean hasSubscriptions(String clientId) {
+        Set<Topic> topics = byClient.get(clientId);
+        return topics != null && !topics.isEmpty();
+    }
+
+    public int countFor(String clientId) {
+        Set<Topic> topics = byClient.get(clientId);
+        return topics != null ? topics.size() : 0;
+    }
+
+    /**
+     * Collect the clients interested in a notification into recipients
+     */
+    public void match(RpcMessage notification, Set<String> recipients) {
+        String method = notification.getMethod();
+        if (method == null || index.isEmpty()) {
+            return;
+        }
+
+        matchMethod(method, notification, recipients);
+        int dot = method.lastIndexOf('.');
+        if (dot > 0) {
+            matchMethod(method.substring(0, dot + 1) + WILDCARD, notification, recipients);
+        }
+        matchMethod(WILDCARD, notification, recipients);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clients", byClient.size());
+        stats.put("subscriptions", byClient.values().stream().mapToInt(Set::size).sum());
+        stats.put("methodPatterns", index.size());
+        return stats;
+    }
+
+    private void matchMethod(String methodPattern, RpcMessage notification, Set<String> recipients) {
+        Map<String, Set<String>> byKey = index.get(methodPattern);
+        if (byKey == null) {
+            return;
+        }
+
+        addAll(byKey.get(WILDCARD), recipients);
+        if (byKey.size() > 1 || !byKey.containsKey(WILDCARD)) {
+            for (String keyParam : keyParams) {
+                Object value = notification.getParam(keyParam);
+                if (value != null) {
+                    addAll(byKey.get(keyParam + "=" + value), recipients);
+                }
+            }
+        }
+    }
+
+    private void removeFromIndex(String clientId, Topic topic) {
+        index.computeIfPresent(topic.methodPattern, (method, byKey) -> {
+            byKey.computeIfPresent(topic.keyFilter, (key, clients) -> {
+                clients.remove(clientId);
+                return clients.isEmpty() ? null : clients;
+            });
+            return byKey.isEmpty() ? null : byKey;
+        });
+    }
+
+    private static void addAll(Set<String> source, Set<String> target) {
+        if (source != null) {
+            target.addAll(source);
+        }
+    }
+
+    /**
+     * Parse a topic from subscribe/unsubscribe params
+     *
+     * @return null if params do not describe a valid topic
+     */
+    public Topic parseTopic(Map<String, Object> params) {
+        if (params == null || !(params.get("method") instanceof String)) {
+            return null;
+        }
+
+        String methodPattern = ((String) params.get("method")).trim();
+        if (methodPattern.isEmpty() || (methodPattern.contains(WILDCARD)
+                && !methodPattern.equals(WILDCARD) && !methodPattern.endsWith("." + WILDCARD))) {
+            return null;
+        }
+
+        for (String keyParam : keyParams) {
+            Object value = params.get(keyParam);
+            if (value != null && !WILDCARD.equals(value.toString())) {
+                return new Topic(methodPattern, keyParam + "=" + value);
+            }
+        }
+        return new Topic(methodPattern, WILDCARD);
+    }
+
+    /**
+     * Subscription topic: method pattern plus key filter
+     */
+    public static final class Topic {
+        private final String methodPattern;
+        private final String keyFilter;
+
+        Topic(String methodPattern, String keyFilter) {
+            this.methodPattern = methodPattern;
+            this.keyFilter = keyFilter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Topic)) return false;
+            Topic topic = (Topic) o;
+            return methodPattern.equals(topic.methodPattern) && keyFilter.equals(topic.keyFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * methodPattern.hashCode() + keyFilter.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return methodPattern + "[" + keyFilter + "]";
+        }
+    }
+}
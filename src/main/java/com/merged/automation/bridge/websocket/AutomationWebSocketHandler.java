@@ -1,19 +1,31 @@
 package com.merged.automation.bridge.websocket;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.AuthenticateParams;
 import com.merged.automation.bridge.model.ClientInfo;
+import com.merged.automation.bridge.model.RawFrame;
 import com.merged.automation.bridge.model.RpcMessage;
 import com.merged.automation.bridge.service.ClientManager;
+import com.merged.automation.bridge.service.MessageDispatcher;
 import com.merged.automation.bridge.service.RpcProcessor;
+import com.merged.automation.bridge.service.SerialExecutor;
+import com.merged.automation.bridge.security.ClientPrincipal;
 import com.merged.automation.bridge.security.SecurityManager;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.SuspendToken;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * WebSocket handler for automation clients
@@ -22,18 +34,34 @@ import java.util.UUID;
 public class AutomationWebSocketHandler extends WebSocketAdapter {
     private static final Logger logger = LoggerFactory.getLogger(AutomationWebSocketHandler.class);
     
-    private final ObjectMapper objectMapper;
+    private final RpcCodecs codecs;
     private final ClientManager clientManager;
     private final RpcProcessor rpcProcessor;
     private final SecurityManager securityManager;
+    private final BridgeConfig bridgeConfig;
+    private final MessageDispatcher messageDispatcher;
+    private final WireFormat wireFormat;
+    private final FrameEncoder frameEncoder;
+    private final ClientPrincipal principal;
+    private final AtomicReference<SuspendToken> suspendToken = new AtomicReference<>();
     private String clientId;
+    private volatile OutboundQueue outboundQueue;
+    private volatile SerialExecutor inboundExecutor;
     
-    public AutomationWebSocketHandler(ObjectMapper objectMapper, ClientManager clientManager, 
-                                    RpcProcessor rpcProcessor, SecurityManager securityManager) {
-        this.objectMapper = objectMapper;
+    public AutomationWebSocketHandler(RpcCodecs codecs, ClientManager clientManager, 
+                                    RpcProcessor rpcProcessor, SecurityManager securityManager,
+                                    BridgeConfig bridgeConfig, MessageDispatcher messageDispatcher,
+                                    WireFormat wireFormat, FrameEncoder frameEncoder, 
+                                    ClientPrincipal principal) {
+        this.codecs = codecs;
         this.clientManager = clientManager;
         this.rpcProcessor = rpcProcessor;
         this.securityManager = securityManager;
+        this.bridgeConfig = bridgeConfig;
+        this.messageDispatcher = messageDispatcher;
+        this.wireFormat = wireFormat;
+        this.frameEncoder = frameEncoder;
+        this.principal = principal;
     }
     
     @Override
@@ -41,63 +69,118 @@ public class AutomationWebSocketHandler extends WebSocketAdapter {
         super.onWebSocketConnect(session);
         this.clientId = UUID.randomUUID().toString();
         
-        logger.info("WebSocket connection established: {}", clientId);
+        // The IP whitelist and connection rate limit were checked on upgrade
+        logger.info("WebSocket connection established: {} ({})", clientId, wireFormat);
         
-        // Check connection security
-        SecurityManager.SecurityCheckResult securityCheck = securityManager.checkConnectionSecurity(session);
-        if (!securityCheck.isAllowed()) {
-            logger.warn("Connection blocked for security reasons: {}", securityCheck.getReason());
-            try {
-                session.close(1008, "Connection blocked: " + securityCheck.getReason());
-            } catch (Exception e) {
-                logger.error("Error closing blocked connection", e);
-            }
-            return;
-        }
+        this.outboundQueue = new OutboundQueue(clientId, session, bridgeConfig, wireFormat, frameEncoder);
+        // Dropped messages never reach the finally that resumes reads
+        this.inboundExecutor = messageDispatcher.newSerialExecutor(clientId, this::resumeIfDrained);
         
-        // Register client with temporary info - will be updated on authentication
-        ClientInfo clientInfo = new ClientInfo(clientId, ClientInfo.ClientType.AUTOMATION_SERVICE, "Unknown");
-        clientManager.registerClient(clientId, session, clientInfo);
+        ClientInfo clientInfo;
+        if (principal != null) {
+            // Already authenticated by the token in the upgrade request
+            clientInfo = new ClientInfo(clientId, 
+                ClientInfo.ClientType.valueOf(principal.getClientType().toUpperCase()), principal.getSubject());
+        } else {
+            // Register client with temporary info - will be updated on authentication
+            clientInfo = new ClientInfo(clientId, ClientInfo.ClientType.AUTOMATION_SERVICE, "Unknown");
+            clientInfo.setStatus(ClientInfo.ClientStatus.CONNECTING);
+        }
+        clientManager.registerClient(clientId, session, clientInfo, this);
     }
     
     @Override
     public void onWebSocketText(String message) {
+        dispatch(() -> handleText(message));
+    }
+    
+    @Override
+    public void onWebSocketBinary(byte[] payload, int offset, int len) {
+        // The array belongs to Jetty once this method returns
+        byte[] message = Arrays.copyOfRange(payload, offset, offset + len);
+        dispatch(() -> handleBinary(message));
+    }
+    
+    /**
+     * Run an inbound message on the client's serial executor, suspending reads while it is backed up
+     */
+    private void dispatch(Runnable task) {
+        SerialExecutor executor = inboundExecutor;
+        if (executor == null) {
+            logger.warn("Dropping message from {}: connection was not accepted", clientId);
+            return;
+        }
+        
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                resumeIfDrained();
+            }
+        });
+        
+        // Stop reading from this socket while its backlog is too deep
+        if (executor.getPending() >= bridgeConfig.getDispatchMaxPendingPerSession() 
+                && suspendToken.get() == null) {
+            suspendToken.set(getSession().suspend());
+            logger.debug("Suspended reads for {} ({} messages pending)", clientId, executor.getPending());
+            // The backlog may have drained before the token was published
+            resumeIfDrained();
+        }
+    }
+    
+    /**
+     * Parse, check and process a JSON text frame. Runs on the client's serial executor.
+     */
+    private void handleText(String message) {
+        logger.debug("Received message from {}: {}", clientId, message);
+        handleFrame(() -> RpcMessageReader.read(codecs.json(), message, bridgeConfig.getBatchMaxSize()), message);
+    }
+    
+    /**
+     * Parse, check and process a binary frame in the negotiated format, or JSON for clients that negotiated none
+     */
+    private void handleBinary(byte[] message) {
+        logger.debug("Received {} byte binary message from {}", message.length, clientId);
+        WireFormat format = wireFormat.isBinary() ? wireFormat : WireFormat.JSON;
+        handleFrame(() -> RpcMessageReader.read(codecs.get(format), message, 0, message.length, 
+            bridgeConfig.getBatchMaxSize()), null);
+    }
+    
+    /**
+     * @param rawMessage original text for size validation, null for binary messages whose size Jetty limits
+     */
+    private void handleFrame(FrameDecoder decoder, String rawMessage) {
         try {
-            logger.debug("Received message from {}: {}", clientId, message);
-            
-            // Parse RPC message
-            RpcMessage rpcMessage = objectMapper.readValue(message, RpcMessage.class);
+            // Parse the envelope only; params are bound once something needs them
+            RpcMessageReader.ParsedFrame frame = decoder.decode();
             
-            // Security check
-            SecurityManager.SecurityCheckResult securityCheck = 
-                securityManager.checkMessageSecurity(clientId, rpcMessage, message, getSession());
-            
-            if (!securityCheck.isAllowed()) {
-                logger.warn("Message blocked for security reasons: {}", securityCheck.getReason());
-                
-                // Send security error response
-                RpcMessage errorResponse = new RpcMessage(
-                    rpcMessage.getId() != null ? rpcMessage.getId() : UUID.randomUUID().toString(), 
-                    RpcMessage.MessageType.ERROR
-                );
-                errorResponse.setError(new RpcMessage.RpcError(
-                    RpcMessage.ErrorCodes.UNAUTHORIZED, 
-                    securityCheck.getReason()
-                ));
+            if (!frame.isBatch()) {
+                RpcMessage response = handleMessage(frame.getMessages().get(0), rawMessage, null);
                 
-                sendMessage(errorResponse);
+                // Send response if needed
+                if (response != null) {
+                    sendMessage(response);
+                }
                 return;
             }
             
-            // Update client activity
-            clientManager.updateClientActivity(clientId);
-            
-            // Process RPC message
-            RpcMessage response = rpcProcessor.processMessage(clientId, rpcMessage);
+            // Each element is checked and rate limited on its own; local replies go back as one array
+            RpcProcessor.Batch batch = rpcProcessor.newBatch(clientId);
+            List<RpcMessage> replies = new ArrayList<>();
+            try {
+                for (RpcMessage rpcMessage : frame.getMessages()) {
+                    RpcMessage reply = handleMessage(rpcMessage, rawMessage, batch);
+                    if (reply != null) {
+                        replies.add(reply);
+                    }
+                }
+            } finally {
+                replies.addAll(batch.flush());
+            }
             
-            // Send response if needed
-            if (response != null) {
-                sendMessage(response);
+            if (!replies.isEmpty()) {
+                sendBatch(replies);
             }
             
         } catch (Exception e) {
@@ -117,14 +200,99 @@ public class AutomationWebSocketHandler extends WebSocketAdapter {
         }
     }
     
+    /**
+     * Check and process one message
+     *
+     * @param batch batch the message belongs to, null for a single message frame
+     * @return the reply to send, or null if there is none
+     */
+    private RpcMessage handleMessage(RpcMessage rpcMessage, String rawMessage, RpcProcessor.Batch batch) {
+        // Security check
+        SecurityManager.SecurityCheckResult securityCheck = 
+            securityManager.checkMessageSecurity(clientId, principal, rpcMessage, rawMessage, getSession());
+        
+        if (!securityCheck.isAllowed()) {
+            logger.warn("Message blocked for security reasons: {}", securityCheck.getReason());
+            
+            // Security error response
+            RpcMessage errorResponse = new RpcMessage(
+                rpcMessage.getId() != null ? rpcMessage.getId() : UUID.randomUUID().toString(), 
+                RpcMessage.MessageType.ERROR
+            );
+            errorResponse.setError(new RpcMessage.RpcError(
+                RpcMessage.ErrorCodes.UNAUTHORIZED, 
+                securityCheck.getReason()
+            ));
+            return errorResponse;
+        }
+        
+        // Update client activity
+        clientManager.updateClientActivity(clientId);
+        
+        // Connections that presented no token at upgrade authenticate here
+        if (principal == null && "client.authenticate".equals(rpcMessage.getMethod())) {
+            return authenticate(rpcMessage, batch);
+        }
+        
+        // Process RPC message
+        return batch != null ? batch.process(rpcMessage) : rpcProcessor.processMessage(clientId, rpcMessage);
+    }
+    
+    /**
+     * Authenticate the connection with client.authenticate
+     *
+     * @return a response carrying the session token, or the reason authentication failed
+     */
+    private RpcMessage authenticate(RpcMessage rpcMessage, RpcProcessor.Batch batch) {
+        AuthenticateParams params = rpcMessage.getParams(AuthenticateParams.class);
+        SecurityManager.AuthenticationResult result = params != null
+            ? securityManager.authenticateClient(clientId, params.getType(), params.getToken(), getSession())
+            : SecurityManager.AuthenticationResult.failed("Missing params");
+        String replyId = rpcMessage.getId() != null ? rpcMessage.getId() : UUID.randomUUID().toString();
+        
+        if (!result.isSuccess()) {
+            RpcMessage errorResponse = new RpcMessage(replyId, RpcMessage.MessageType.ERROR);
+            errorResponse.setError(new RpcMessage.RpcError(
+                RpcMessage.ErrorCodes.UNAUTHORIZED, 
+                result.getErrorMessage()
+            ));
+            return errorResponse;
+        }
+        
+        // Client info takes the authenticated type and name
+        if (batch != null) {
+            batch.process(rpcMessage);
+        } else {
+            rpcProcessor.processMessage(clientId, rpcMessage);
+        }
+        
+        RpcMessage response = new RpcMessage(replyId, RpcMessage.MessageType.RESPONSE);
+        response.setResult(Map.of("token", result.getToken()));
+        return response;
+    }
+    
     @Override
     public void onWebSocketClose(int statusCode, String reason) {
         super.onWebSocketClose(statusCode, reason);
         logger.info("WebSocket connection closed for {}: {} - {}", clientId, statusCode, reason);
         
+        if (outboundQueue != null) {
+            outboundQueue.close();
+        }
+        
         if (clientId != null) {
-            clientManager.unregisterClient(clientId);
-            securityManager.disconnectClient(clientId);
+            // Unregister after any messages still queued for this client
+            Runnable cleanup = () -> {
+                clientManager.unregisterClient(clientId);
+                securityManager.disconnectClient(clientId);
+            };
+            
+            SerialExecutor executor = inboundExecutor;
+            if (executor != null) {
+                executor.execute(cleanup);
+            } else {
+                cleanup.run();
+            }
         }
     }
     
@@ -138,23 +306,137 @@ public class AutomationWebSocketHandler extends WebSocketAdapter {
         }
     }
     
+    private void resumeIfDrained() {
+        SerialExecutor executor = inboundExecutor;
+        if (executor != null && executor.getPending() <= bridgeConfig.getDispatchMaxPendingPerSession() / 2) {
+            SuspendToken token = suspendToken.getAndSet(null);
+            if (token != null) {
+                token.resume();
+                logger.debug("Resumed reads for {}", clientId);
+            }
+        }
+    }
+    
+    /**
+     * Queue RPC message for asynchronous delivery to client
+     *
+     * @return false if the session is closed or its outbound queue rejected the message
+     */
+    public boolean sendMessage(RpcMessage message) {
+        return send(message, message.getId());
+    }
+    
     /**
-     * Send RPC message to client
+     * Queue messages for delivery to client as one batch array frame
+     *
+     * @return false if the session is closed or its outbound queue rejected the batch
      */
-    public void sendMessage(RpcMessage message) {
+    public boolean sendBatch(List<RpcMessage> messages) {
+        return send(messages, "batch of " + messages.size());
+    }
+    
+    private boolean send(Object payload, String description) {
+        OutboundQueue queue = outboundQueue;
+        if (queue == null || getSession() == null || !getSession().isOpen()) {
+            logger.warn("Cannot send message to {}: session is not open", clientId);
+            return false;
+        }
+        
         try {
-            String json = objectMapper.writeValueAsString(message);
+            EncodedFrame frame = encode(payload);
             
-            if (getSession() != null && getSession().isOpen()) {
-                getSession().getRemote().sendString(json);
-                logger.debug("Sent message to {}: {}", clientId, json);
-            } else {
-                logger.warn("Cannot send message to {}: session is not open", clientId);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Queueing message to {}: {}", clientId, frame.asText());
             }
             
-        } catch (IOException e) {
-            logger.error("Failed to send message to {}: {}", clientId, e.getMessage(), e);
+            // Array frames are never joined into a further batch
+            boolean queued = payload instanceof List ? queue.offerBatch(frame) : queue.offer(frame);
+            if (queued) {
+                return true;
+            }
+            
+            logger.warn("Outbound queue full for {}, dropped message {}", clientId, description);
+            return false;
+            
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to serialize message to {}: {}", clientId, e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Encode a message or a list of messages in this connection's format
+     */
+    private EncodedFrame encode(Object payload) throws IOException {
+        RpcCodec codec = codecs.get(wireFormat);
+        if (wireFormat != WireFormat.JSON) {
+            return frameEncoder.encode(payload instanceof List ? codec.getBatchWriter() : codec.getMessageWriter(), 
+                payload, true);
+        }
+        boolean passThrough = bridgeConfig.isRpcPassThrough();
+        if (!(payload instanceof List)) {
+            return encodeJson(frameEncoder, codec, (RpcMessage) payload, passThrough);
+        }
+        
+        // Join the elements so relayed ones keep their original bytes
+        List<?> messages = (List<?>) payload;
+        return frameEncoder.write(false, out -> {
+            out.write('[');
+            for (int i = 0; i < messages.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeJson(codec, (RpcMessage) messages.get(i), passThrough, out);
+            }
+            out.write(']');
+        });
+    }
+    
+    /**
+     * Encode a message as JSON, relaying the frame it was received in if it is
+     * still unchanged apart from its id
+     */
+    public static EncodedFrame encodeJson(FrameEncoder frameEncoder, RpcCodec jsonCodec, RpcMessage message, 
+                                          boolean passThrough) throws IOException {
+        return frameEncoder.write(false, out -> writeJson(jsonCodec, message, passThrough, out));
+    }
+    
+    private static void writeJson(RpcCodec jsonCodec, RpcMessage message, boolean passThrough, 
+                                  OutputStream out) throws IOException {
+        RawFrame rawFrame = message.getRawFrame();
+        if (passThrough && rawFrame != null && rawFrame.hasId()) {
+            rawFrame.writeWithId(message.getId(), out);
+        } else {
+            jsonCodec.getMessageWriter().writeValue(out, message);
+        }
+    }
+    
+    /**
+     * Queue an already encoded frame, e.g. one shared by a broadcast.
+     * The caller keeps its own reference; this method retains one for the queue.
+     *
+     * @return false if the session is closed or its outbound queue rejected the frame
+     */
+    public boolean sendFrame(EncodedFrame frame) {
+        return sendFrame(frame, null);
+    }
+    
+    /**
+     * Queue an already encoded frame that replaces any unwritten frame with the same conflation key
+     */
+    public boolean sendFrame(EncodedFrame frame, String conflationKey) {
+        OutboundQueue queue = outboundQueue;
+        if (queue == null || getSession() == null || !getSession().isOpen()) {
+            return false;
         }
+        return queue.offer(frame.retain(), conflationKey);
+    }
+    
+    /**
+     * Encoding negotiated for this connection; replies and broadcasts use it
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
     }
     
     /**
@@ -163,4 +445,16 @@ public class AutomationWebSocketHandler extends WebSocketAdapter {
     public String getClientId() {
         return clientId;
     }
+    
+    /**
+     * Get outbound queue for this session, null before the connection is accepted
+     */
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+    
+    @FunctionalInterface
+    private interface FrameDecoder {
+        RpcMessageReader.ParsedFrame decode() throws IOException;
+    }
 }
\ No newline at end of file
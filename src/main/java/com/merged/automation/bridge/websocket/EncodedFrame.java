@@ -0,0 +1,105 @@
+package com.merged.automation.bridge.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An already encoded message payload that can be queued on any number of
+ * sessions without being copied or re-encoded.
+ * Reference counted: every holder calls {@link #release()} once it is done,
+ * and the creator's reference counts as the first one.
+ * Carries whether it goes out as a text or a binary frame.
+ */
+public final class EncodedFrame {
+    private final ByteBuffer payload;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final Runnable deallocator;
+    private final boolean binary;
+
+    private EncodedFrame(ByteBuffer payload, Runnable deallocator, boolean binary) {
+        this.payload = payload.asReadOnlyBuffer();
+        this.deallocator = deallocator;
+        this.binary = binary;
+    }
+
+    /**
+     * Wrap UTF-8 encoded text
+     */
+    public static EncodedFrame wrap(byte[] utf8) {
+        return wrap(utf8, false);
+    }
+
+    /**
+     * Wrap an encoded message that is sent as a binary frame if binary is set, as text otherwise
+     */
+    public static EncodedFrame wrap(byte[] data, boolean binary) {
+        return new EncodedFrame(ByteBuffer.wrap(data), null, binary);
+    }
+
+    /**
+     * Wrap a buffer that must be handed back via deallocator once the last reference is released
+     */
+    public static EncodedFrame wrap(ByteBuffer utf8, Runnable deallocator) {
+        return wrap(utf8, false, deallocator);
+    }
+
+    /**
+     * Wrap a pooled buffer holding a text or binary message
+     */
+    public static EncodedFrame wrap(ByteBuffer data, boolean binary, Runnable deallocator) {
+        return new EncodedFrame(data, deallocator, binary);
+    }
+
+    public EncodedFrame retain() {
+        int previous = refCount.getAndIncrement();
+        if (previous <= 0) {
+            refCount.getAndDecrement();
+            throw new IllegalStateException("Frame already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            if (deallocator != null) {
+                deallocator.run();
+            }
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Frame released too many times");
+        }
+    }
+
+    /**
+     * View of the payload with its own position, safe to hand to one writer
+     */
+    public ByteBuffer payload() {
+        return payload.duplicate();
+    }
+
+    /**
+     * Append the payload to out
+     */
+    public void writeTo(FrameEncoder.BufferOutputStream out) {
+        out.write(payload);
+    }
+
+    public int size() {
+        return payload.remaining();
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Decode the payload as text, for logging
+     */
+    public String asText() {
+        if (binary) {
+            return "<" + size() + " bytes binary>";
+        }
+        return StandardCharsets.UTF_8.decode(payload()).toString();
+    }
+}
@@ -0,0 +1,165 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.eclipse.jetty.io.ByteBufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes outbound messages straight into buffers taken from Jetty's
+ * {@link ByteBufferPool}. The buffer travels inside the {@link EncodedFrame}
+ * and goes back to the pool when the frame's last reference is released, so
+ * a steady stream of replies reuses the same few buffers instead of
+ * allocating a String and a byte array per message.
+ */
+public class FrameEncoder {
+    private final ByteBufferPool bufferPool;
+    private final int initialCapacity;
+    private final boolean direct;
+
+    /**
+     * @param initialCapacity size of the first buffer tried for a message; it grows as needed
+     * @param direct whether to use direct buffers, which the socket writes without a copy
+     */
+    public FrameEncoder(ByteBufferPool bufferPool, int initialCapacity, boolean direct) {
+        this.bufferPool = bufferPool;
+        this.initialCapacity = initialCapacity;
+        this.direct = direct;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Serialize a value with the given writer
+     */
+    public EncodedFrame encode(ObjectWriter writer, Object value, boolean binary) throws IOException {
+        return write(binary, out -> writer.writeValue(out, value));
+    }
+
+    /**
+     * Build a frame from whatever body writes
+     */
+    public EncodedFrame write(boolean binary, Body body) throws IOException {
+        BufferOutputStream out = new BufferOutputStream();
+        try {
+            body.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        return out.toFrame(binary);
+    }
+
+    /**
+     * Output stream for content that arrives in pieces; the caller builds the
+     * frame with {@link BufferOutputStream#toFrame(boolean)} or discards it
+     *
+     * @param initialCapacity size of the first buffer, e.g. the size of the first piece
+     */
+    public BufferOutputStream newOutputStream(int initialCapacity) {
+        return new BufferOutputStream(Math.max(1, initialCapacity));
+    }
+
+    /**
+     * Writes the content of a frame
+     */
+    @FunctionalInterface
+    public interface Body {
+        void writeTo(BufferOutputStream out) throws IOException;
+    }
+
+    /**
+     * Output stream over a pooled buffer that swaps in a larger one when full.
+     * Closing it does nothing, since mappers close their target when done.
+     */
+    public final class BufferOutputStream extends OutputStream {
+        private ByteBuffer buffer;
+
+        private BufferOutputStream() {
+            this(initialCapacity);
+        }
+
+        private BufferOutputStream(int capacity) {
+            buffer = acquire(capacity);
+        }
+
+        @Override
+        public void write(int b) {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensureRemaining(length);
+            buffer.put(bytes, offset, length);
+        }
+
+        /**
+         * Append the remaining bytes of source without changing its position
+         */
+        public void write(ByteBuffer source) {
+            ensureRemaining(source.remaining());
+            buffer.put(source.duplicate());
+        }
+
+        private void ensureRemaining(int length) {
+            if (buffer == null) {
+                throw new IllegalStateException("Frame already built");
+            }
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            ByteBuffer larger = acquire(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            larger.put(buffer);
+            bufferPool.release(buffer);
+            buffer = larger;
+        }
+
+        private ByteBuffer acquire(int capacity) {
+            ByteBuffer acquired = bufferPool.acquire(capacity, direct);
+            // Pooled buffers come back in flush mode and may be larger than asked for
+            acquired.clear();
+            return acquired;
+        }
+
+        /**
+         * Bytes written so far
+         */
+        public int size() {
+            return buffer != null ? buffer.position() : 0;
+        }
+
+        /**
+         * Hand the buffer over to a frame; the stream cannot be written afterwards
+         */
+        public EncodedFrame toFrame(boolean binary) {
+            if (buffer == null) {
+                throw new IllegalStateException("Frame already built");
+            }
+            ByteBuffer built = buffer;
+            buffer = null;
+            built.flip();
+            return EncodedFrame.wrap(built, binary, () -> bufferPool.release(built));
+        }
+
+        /**
+         * Give the buffer back to the pool without building a frame
+         */
+        public void discard() {
+            if (buffer != null) {
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.merged.automation.bridge.websocket;
+
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.core.CoreSession;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.OpCode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes {@link EncodedFrame}s to a session. Jetty's own sessions get the
+ * payload handed straight to their core session, which neither copies it nor
+ * flushes before the last frame of a batch. Any other {@link Session} goes
+ * through its {@link RemoteEndpoint}, text frames being decoded to a string
+ * for it. This is the only place that depends on Jetty's internal session type.
+ */
+final class FrameSender {
+    private final CoreSession coreSession;
+    private final RemoteEndpoint remote;
+
+    private FrameSender(CoreSession coreSession, RemoteEndpoint remote) {
+        this.coreSession = coreSession;
+        this.remote = remote;
+    }
+
+    static FrameSender of(Session session) {
+        if (session instanceof WebSocketSession) {
+            return new FrameSender(((WebSocketSession) session).getCoreSession(), null);
+        }
+        return new FrameSender(null, session.getRemote());
+    }
+
+    /**
+     * Send one frame; the callback is completed once it has been written or has failed
+     *
+     * @param batch whether the frame may wait to be flushed together with the next one
+     */
+    void send(EncodedFrame frame, Callback callback, boolean batch) {
+        if (coreSession != null) {
+            coreSession.sendFrame(new Frame(frame.isBinary() ? OpCode.BINARY : OpCode.TEXT, frame.payload()),
+                callback, batch);
+            return;
+        }
+
+        WriteCallback writeCallback = new WriteCallback() {
+            @Override
+            public void writeSuccess() {
+                callback.succeeded();
+            }
+
+            @Override
+            public void writeFailed(Throwable cause) {
+                callback.failed(cause);
+            }
+        };
+        try {
+            if (frame.isBinary()) {
+                remote.sendBytes(frame.payload(), writeCallback);
+            } else {
+                remote.sendString(StandardCharsets.UTF_8.decode(frame.payload()).toString(), writeCallback);
+            }
+        } catch (RuntimeException e) {
+            callback.failed(e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.core.exc.StreamConstraintsException;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+
+import java.io.IOException;
+
+/**
+ * Parser wrapper that counts the entries of every open object and array and
+ * tracks nesting depth as tokens are read, failing on the first token that
+ * goes over a limit. Skipping is done token by token so skipped values are
+ * counted too. Applies to every format, including binary ones whose parsers
+ * do not check nesting themselves.
+ */
+final class LimitingParser extends JsonParserDelegate {
+    private final int maxDepth;
+    private final int maxEntries;
+    // Per open container, index 0 being the top level
+    private final int[] entries;
+    private final boolean[] array;
+    private int depth;
+
+    LimitingParser(JsonParser parser, int maxDepth, int maxEntries) {
+        super(parser);
+        this.maxDepth = maxDepth;
+        this.maxEntries = maxEntries;
+        this.entries = new int[maxDepth + 1];
+        this.array = new boolean[maxDepth + 1];
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        JsonToken token = delegate.nextToken();
+        if (token == null) {
+            return null;
+        }
+        switch (token.id()) {
+            case JsonTokenId.ID_END_OBJECT:
+            case JsonTokenId.ID_END_ARRAY:
+                depth--;
+                break;
+            case JsonTokenId.ID_FIELD_NAME:
+                countEntry();
+                break;
+            case JsonTokenId.ID_START_OBJECT:
+            case JsonTokenId.ID_START_ARRAY:
+                if (array[depth]) {
+                    countEntry();
+                }
+                if (depth == maxDepth) {
+                    throw new StreamConstraintsException("Nesting depth exceeds the maximum of " + maxDepth,
+                        delegate.getTokenLocation());
+                }
+                depth++;
+                entries[depth] = 0;
+                array[depth] = token == JsonToken.START_ARRAY;
+                break;
+            default:
+                if (array[depth]) {
+                    countEntry();
+                }
+        }
+        return token;
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken token = nextToken();
+        return token == JsonToken.FIELD_NAME ? nextToken() : token;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken current = currentToken();
+        if (current != JsonToken.START_OBJECT && current != JsonToken.START_ARRAY) {
+            return this;
+        }
+        int open = 1;
+        while (open > 0) {
+            JsonToken token = nextToken();
+            if (token == null) {
+                return this;
+            }
+            if (token.isStructStart()) {
+                open++;
+            } else if (token.isStructEnd()) {
+                open--;
+            }
+        }
+        return this;
+    }
+
+    private void countEntry() throws StreamConstraintsException {
+        if (++entries[depth] > maxEntries) {
+            throw new StreamConstraintsException((array[depth] ? "Array" : "Object")
+                + " has more than " + maxEntries + " entries", delegate.getTokenLocation());
+        }
+    }
+}
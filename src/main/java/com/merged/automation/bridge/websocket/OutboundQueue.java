@@ -0,0 +1,436 @@
+package com.merged.automation.bridge.websocket;
+
+import com.merged.automation.bridge.config.BridgeConfig;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, non-blocking outbound queue for a single WebSocket session.
+ * Only one write is in flight at a time; everything that accumulates while
+ * it is pending is sent as one batched write once it completes.
+ * Queued {@link EncodedFrame}s are written as pre-encoded frames, so a
+ * frame shared by many sessions is never copied or re-encoded.
+ * Frames offered with a conflation key replace an unwritten frame with the
+ * same key instead of queueing behind it, so a slow reader only gets the
+ * latest state for each key.
+ * Sessions that opt in to coalescing get consecutive single messages joined
+ * into one batch array frame; while such a session is busy, a flush may wait
+ * a short window for more messages, while an idle session is flushed at once.
+ */
+public class OutboundQueue {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private final String clientId;
+    private final Session session;
+    private final FrameSender sender;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int maxBatchMessages;
+    private final OverflowPolicy overflowPolicy;
+    private final long slowConsumerTimeout;
+    private final WireFormat wireFormat;
+    private final FrameEncoder frameEncoder;
+    private final boolean coalesceAllowed;
+    private final long coalesceMaxDelayMicros;
+    private final int coalesceMaxMessagesLimit;
+
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    // Unwritten conflatable entries by key, guarded by itself
+    private final Map<String, Entry> conflatable = new HashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile boolean saturated;
+    private volatile long saturatedSince;
+    private volatile boolean closed;
+
+    // Coalescing, off until the client asks for it
+    private volatile boolean coalescing;
+    private volatile long coalesceDelayNanos;
+    private volatile int coalesceMaxMessages;
+    private volatile long lastFlushNanos;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // Metrics
+    private final AtomicInteger peakDepth = new AtomicInteger();
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    private final LongAdder coalescedFrames = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder totalWriteMicros = new LongAdder();
+    private final AtomicLong maxWriteMicros = new AtomicLong();
+    private volatile long lastWriteMicros;
+
+    public OutboundQueue(String clientId, Session session, BridgeConfig config, WireFormat wireFormat, 
+                         FrameEncoder frameEncoder) {
+        this.clientId = clientId;
+        this.session = session;
+        this.sender = FrameSender.of(session);
+        this.highWatermark = config.getOutboundHighWatermark();
+        this.lowWatermark = config.getOutboundLowWatermark();
+        this.maxBatchMessages = config.getOutboundMaxBatchMessages();
+        this.overflowPolicy = config.getOutboundOverflowPolicy();
+        this.slowConsumerTimeout = config.getOutboundSlowConsumerTimeout();
+        this.wireFormat = wireFormat;
+        this.frameEncoder = frameEncoder;
+        this.coalesceAllowed = config.isOutboundCoalesceAllowed() && wireFormat.canJoin();
+        this.coalesceMaxDelayMicros = config.getOutboundCoalesceMaxDelayMicros();
+        this.coalesceMaxMessagesLimit = config.getOutboundCoalesceMaxMessages();
+    }
+
+    /**
+     * Queue a frame for delivery. Never blocks; returns false if the
+     * frame was rejected because the queue is closed or saturated.
+     * Takes ownership of one reference to the frame either way.
+     */
+    public boolean offer(EncodedFrame frame) {
+        return offer(frame, null);
+    }
+
+    /**
+     * Queue a frame, replacing a still unwritten frame with the same conflation
+     * key if there is one. A null key queues normally.
+     */
+    public boolean offer(EncodedFrame frame, String conflationKey) {
+        return offer(frame, conflationKey, true);
+    }
+
+    /**
+     * Queue a frame that already holds a batch array; it is never joined with others
+     */
+    public boolean offerBatch(EncodedFrame frame) {
+        return offer(frame, null, false);
+    }
+
+    /**
+     * Turn coalescing on or off for this session. Requested limits are capped
+     * by the server settings.
+     *
+     * @return the settings in effect
+     */
+    public Map<String, Object> setCoalescing(boolean enabled, long maxDelayMicros, int maxMessages) {
+        long delayMicros = Math.max(0, Math.min(maxDelayMicros, coalesceMaxDelayMicros));
+        coalesceDelayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+        coalesceMaxMessages = Math.max(2, Math.min(maxMessages, coalesceMaxMessagesLimit));
+        coalescing = enabled && coalesceAllowed;
+
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("enabled", coalescing);
+        settings.put("maxDelayMicros", delayMicros);
+        settings.put("maxMessages", coalesceMaxMessages);
+        return settings;
+    }
+
+    private boolean offer(EncodedFrame frame, String conflationKey, boolean coalescable) {
+        if (closed) {
+            frame.release();
+            return false;
+        }
+
+        if (conflationKey != null) {
+            EncodedFrame replaced = null;
+            synchronized (conflatable) {
+                Entry existing = conflatable.get(conflationKey);
+                if (existing != null) {
+                    replaced = existing.frame;
+                    existing.frame = frame;
+                }
+            }
+            if (replaced != null) {
+                replaced.release();
+                conflated.increment();
+                return true;
+            }
+        }
+
+        if (saturated) {
+            frame.release();
+            rejected.increment();
+            checkSlowConsumer();
+            return false;
+        }
+
+        Entry entry = new Entry(frame, conflationKey, coalescable);
+        if (conflationKey != null) {
+            synchronized (conflatable) {
+                conflatable.put(conflationKey, entry);
+            }
+        }
+
+        int currentDepth = depth.incrementAndGet();
+        pending.offer(entry);
+        enqueued.increment();
+        peakDepth.accumulateAndGet(currentDepth, Math::max);
+
+        if (currentDepth >= highWatermark && !saturated) {
+            saturatedSince = System.currentTimeMillis();
+            saturated = true;
+            logger.warn("Outbound queue for {} reached high watermark ({} messages)", clientId, currentDepth);
+        }
+
+        flushOrDefer(currentDepth);
+        return true;
+    }
+
+    /**
+     * Drop everything still queued. Called when the session goes away.
+     */
+    public void close() {
+        closed = true;
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            take(entry).release();
+        }
+        depth.set(0);
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * Snapshot of queue metrics for monitoring
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long writeCount = writes.sum();
+        stats.put("depth", depth.get());
+        stats.put("peakDepth", peakDepth.get());
+        stats.put("saturated", saturated);
+        stats.put("enqueued", enqueued.sum());
+        stats.put("written", written.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("conflated", conflated.sum());
+        stats.put("coalescing", coalescing);
+        stats.put("coalescedFrames", coalescedFrames.sum());
+        stats.put("writes", writeCount);
+        stats.put("lastWriteLatencyMicros", lastWriteMicros);
+        stats.put("avgWriteLatencyMicros", writeCount > 0 ? totalWriteMicros.sum() / writeCount : 0);
+        stats.put("maxWriteLatencyMicros", maxWriteMicros.get());
+        return stats;
+    }
+
+    /**
+     * Flush now, unless the session coalesces and was flushed within the
+     * window, in which case the flush waits for the window to pass
+     */
+    private void flushOrDefer(int currentDepth) {
+        if (coalescing && !writing.get() && currentDepth < coalesceMaxMessages 
+                && System.nanoTime() - lastFlushNanos < coalesceDelayNanos) {
+            if (flushScheduled.compareAndSet(false, true)) {
+                CoalesceTimer.INSTANCE.schedule(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                }, coalesceDelayNanos, TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
+        flush();
+    }
+
+    private void flush() {
+        while (!closed && !pending.isEmpty() && writing.compareAndSet(false, true)) {
+            boolean coalesce = coalescing;
+            List<EncodedFrame> batch = new ArrayList<>(Math.min(maxBatchMessages, Math.max(1, depth.get())));
+            List<EncodedFrame> run = new ArrayList<>();
+            int messages = 0;
+            Entry entry;
+            while (messages < maxBatchMessages && (entry = pending.poll()) != null) {
+                messages++;
+                EncodedFrame frame = take(entry);
+                if (coalesce && entry.coalescable) {
+                    run.add(frame);
+                    if (run.size() >= coalesceMaxMessages) {
+                        batch.add(join(run));
+                    }
+                } else {
+                    if (!run.isEmpty()) {
+                        batch.add(join(run));
+                    }
+                    batch.add(frame);
+                }
+            }
+            if (!run.isEmpty()) {
+                batch.add(join(run));
+            }
+
+            if (batch.isEmpty()) {
+                // Another writer drained the queue between the check and the CAS
+                writing.set(false);
+                continue;
+            }
+
+            lastFlushNanos = System.nanoTime();
+            writeBatch(batch, messages);
+            return;
+        }
+    }
+
+    /**
+     * Turn a run of single messages into one array frame and empty the run
+     */
+    private EncodedFrame join(List<EncodedFrame> run) {
+        if (run.size() == 1) {
+            EncodedFrame single = run.get(0);
+            run.clear();
+            return single;
+        }
+        try {
+            coalescedFrames.increment();
+            return wireFormat.join(run, frameEncoder);
+        } finally {
+            run.forEach(EncodedFrame::release);
+            run.clear();
+        }
+    }
+
+    /**
+     * Claim an entry's frame; a conflatable entry stops accepting replacements
+     */
+    private EncodedFrame take(Entry entry) {
+        if (entry.conflationKey == null) {
+            return entry.frame;
+        }
+        synchronized (conflatable) {
+            conflatable.remove(entry.conflationKey, entry);
+            return entry.frame;
+        }
+    }
+
+    /**
+     * @param messages number of queued messages the frames carry
+     */
+    private void writeBatch(List<EncodedFrame> batch, int messages) {
+        if (!session.isOpen()) {
+            batch.forEach(EncodedFrame::release);
+            close();
+            writing.set(false);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+
+        // Frames before the last one are aggregated by Jetty and flushed
+        // together with the last frame, which is sent with batching off.
+        int last = batch.size() - 1;
+        for (int i = 0; i < last; i++) {
+            EncodedFrame frame = batch.get(i);
+            sender.send(frame, Callback.from(frame::release, failure -> frame.release()), true);
+        }
+
+        EncodedFrame lastFrame = batch.get(last);
+        sender.send(lastFrame, Callback.from(
+            () -> {
+                lastFrame.release();
+                onBatchComplete(messages, startNanos, null);
+            },
+            failure -> {
+                lastFrame.release();
+                onBatchComplete(messages, startNanos, failure);
+            }), false);
+    }
+
+    private void onBatchComplete(int count, long startNanos, Throwable failure) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        lastWriteMicros = micros;
+        totalWriteMicros.add(micros);
+        maxWriteMicros.accumulateAndGet(micros, Math::max);
+        writes.increment();
+
+        if (closed) {
+            writing.set(false);
+            return;
+        }
+
+        int remaining = depth.addAndGet(-count);
+        if (saturated && remaining <= lowWatermark) {
+            saturated = false;
+            logger.info("Outbound queue for {} drained below low watermark ({} messages)", clientId, remaining);
+        }
+
+        if (failure != null) {
+            logger.error("Failed to send message to {}: {}", clientId, failure.getMessage());
+            close();
+            writing.set(false);
+            return;
+        }
+
+        written.add(count);
+        writing.set(false);
+        flush();
+    }
+
+    private void checkSlowConsumer() {
+        if (overflowPolicy != OverflowPolicy.DISCONNECT) {
+            return;
+        }
+
+        long overLimitFor = System.currentTimeMillis() - saturatedSince;
+        if (overLimitFor >= slowConsumerTimeout && !closed) {
+            logger.warn("Disconnecting slow consumer {}: outbound queue over limit for {} ms", clientId, overLimitFor);
+            close();
+            try {
+                session.close(1008, "Slow consumer");
+            } catch (Exception e) {
+                logger.error("Error closing slow consumer {}", clientId, e);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String conflationKey;
+        private final boolean coalescable;
+        // Replaced in place while queued, guarded by the conflatable map
+        private EncodedFrame frame;
+
+        Entry(EncodedFrame frame, String conflationKey, boolean coalescable) {
+            this.frame = frame;
+            this.conflationKey = conflationKey;
+            this.coalescable = coalescable;
+        }
+    }
+
+    /**
+     * Timer for deferred coalescing flushes, shared by all sessions and only
+     * started once a session defers a flush
+     */
+    private static class CoalesceTimer {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbound-coalesce");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * What to do with clients whose queue stays above the high watermark.
+     * Both policies reject new messages until the queue drains to the low
+     * watermark; DISCONNECT additionally closes the session once it has been
+     * saturated for longer than the slow-consumer timeout.
+     */
+    public enum OverflowPolicy {
+        BACKPRESSURE, DISCONNECT
+    }
+}
@@ -0,0 +1,155 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import com.merged.automation.bridge.model.MethodParams;
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mapper for RPC messages in one encoding, with readers and writers bound to
+ * the message types up front so no call has to look up its (de)serializer.
+ * Frames are read through parsers that enforce the read limits as they go.
+ */
+public final class RpcCodec {
+    private final ObjectMapper mapper;
+    private final boolean failOnUnknownProperties;
+    private final int maxNestingDepth;
+    private final int maxContainerEntries;
+    private final ObjectWriter messageWriter;
+    private final ObjectWriter batchWriter;
+    private final ObjectReader messageTypeReader;
+    private final ObjectReader errorReader;
+    private final ObjectReader paramsReader;
+    private final ObjectReader valueReader;
+    private final ObjectReader stringReader;
+    // Readers for the param classes in MethodParams
+    private final Map<Class<?>, ObjectReader> typedParamsReaders = new HashMap<>();
+
+    /**
+     * @param factory parser and generator factory of the encoding, owned by the codec from now on
+     * @param blackbird whether to use generated accessors instead of reflection
+     * @param constraints nesting depth, string and number length limits
+     * @param maxContainerEntries most fields of an object or elements of an array
+     */
+    public RpcCodec(JsonFactory factory, boolean failOnUnknownProperties, boolean blackbird, 
+                    StreamReadConstraints constraints, int maxContainerEntries) {
+        factory.setStreamReadConstraints(constraints);
+        factory.enable(JsonParser.Feature.USE_FAST_DOUBLE_PARSER);
+        factory.enable(JsonParser.Feature.USE_FAST_BIG_NUMBER_PARSER);
+        // A repeated key would let the envelope and the params binding read different copies
+        factory.enable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION);
+
+        this.mapper = new ObjectMapper(factory);
+        this.failOnUnknownProperties = failOnUnknownProperties;
+        this.maxNestingDepth = constraints.getMaxNestingDepth();
+        this.maxContainerEntries = maxContainerEntries;
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, failOnUnknownProperties);
+        // Untyped numbers bind to int, long and double rather than the big types
+        mapper.disable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        mapper.disable(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS);
+        mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        if (blackbird) {
+            mapper.registerModule(new BlackbirdModule());
+        }
+
+        this.messageWriter = mapper.writerFor(RpcMessage.class);
+        this.batchWriter = mapper.writerFor(new TypeReference<List<RpcMessage>>() {});
+        this.messageTypeReader = mapper.readerFor(RpcMessage.MessageType.class);
+        this.errorReader = mapper.readerFor(RpcMessage.RpcError.class);
+        this.paramsReader = mapper.readerFor(new TypeReference<Map<String, Object>>() {});
+        this.valueReader = mapper.readerFor(Object.class);
+        this.stringReader = mapper.readerFor(String.class);
+        for (Class<?> type : MethodParams.types()) {
+            typedParamsReaders.put(type, mapper.readerFor(type));
+        }
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public JsonFactory getFactory() {
+        return mapper.getFactory();
+    }
+
+    /**
+     * Parser for a received frame that fails as soon as it reads past a limit
+     */
+    public JsonParser createParser(String text) throws IOException {
+        return limit(mapper.getFactory().createParser(text));
+    }
+
+    public JsonParser createParser(byte[] data, int offset, int length) throws IOException {
+        return limit(mapper.getFactory().createParser(data, offset, length));
+    }
+
+    private JsonParser limit(JsonParser parser) {
+        return new LimitingParser(parser, maxNestingDepth, maxContainerEntries);
+    }
+
+    public boolean isFailOnUnknownProperties() {
+        return failOnUnknownProperties;
+    }
+
+    public ObjectWriter getMessageWriter() {
+        return messageWriter;
+    }
+
+    /**
+     * Writer for a list of messages sent as one batch array
+     */
+    public ObjectWriter getBatchWriter() {
+        return batchWriter;
+    }
+
+    public RpcMessage.MessageType readMessageType(JsonParser parser) throws IOException {
+        return messageTypeReader.readValue(parser);
+    }
+
+    public RpcMessage.RpcError readError(JsonParser parser) throws IOException {
+        return errorReader.readValue(parser);
+    }
+
+    public Map<String, Object> readParams(JsonParser parser) throws IOException {
+        return paramsReader.readValue(parser);
+    }
+
+    /**
+     * Bind params into their method's param class
+     */
+    public <T> T readParams(JsonParser parser, Class<T> type) throws IOException {
+        ObjectReader reader = typedParamsReaders.get(type);
+        return reader != null ? reader.readValue(parser) : mapper.readValue(parser, type);
+    }
+
+    /**
+     * Bind params held as a map into their method's param class
+     */
+    public <T> T convertParams(Map<String, Object> params, Class<T> type) {
+        return mapper.convertValue(params, type);
+    }
+    
+    /**
+     * Read any value as maps, lists and scalars, e.g. a result
+     */
+    public Object readValue(JsonParser parser) throws IOException {
+        return valueReader.readValue(parser);
+    }
+
+    public String readString(JsonParser parser) throws IOException {
+        return stringReader.readValue(parser);
+    }
+}
@@ -0,0 +1,32 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.merged.automation.bridge.config.BridgeConfig;
+
+/**
+ * The one {@link RpcCodec} per wire format shared by all connections
+ */
+public class RpcCodecs {
+    private final RpcCodec[] codecs = new RpcCodec[WireFormat.values().length];
+
+    public RpcCodecs(BridgeConfig bridgeConfig) {
+        StreamReadConstraints constraints = StreamReadConstraints.builder()
+            .maxNestingDepth(bridgeConfig.getLimitsMaxNestingDepth())
+            .maxStringLength(bridgeConfig.getLimitsMaxStringLength())
+            .maxNumberLength(bridgeConfig.getLimitsMaxNumberLength())
+            .build();
+        for (WireFormat format : WireFormat.values()) {
+            codecs[format.ordinal()] = new RpcCodec(format.createFactory(), 
+                bridgeConfig.isCodecFailOnUnknownProperties(), bridgeConfig.isCodecBlackbird(), 
+                constraints, bridgeConfig.getLimitsMaxContainerEntries());
+        }
+    }
+
+    public RpcCodec get(WireFormat format) {
+        return codecs[format.ordinal()];
+    }
+
+    public RpcCodec json() {
+        return get(WireFormat.JSON);
+    }
+}
@@ -0,0 +1,269 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.merged.automation.bridge.model.RawFrame;
+import com.merged.automation.bridge.model.RawParams;
+import com.merged.automation.bridge.model.RpcMessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Streaming reader that binds the envelope of an RPC message (id, type,
+ * method, ...) but leaves params undecoded. Params are skipped over
+ * structurally and kept as {@link RawParams}, so messages rejected by the
+ * security checks or only forwarded never get a params object tree.
+ * JSON messages also keep their frame as a {@link RawFrame}, with result and
+ * error left unread, so replies and forwarded requests can be relayed as is.
+ * A frame holds either one message object or a batch array of them.
+ */
+public final class RpcMessageReader {
+    private static final List<Object> KNOWN_FIELDS = List.of("id", "type", "method", "params", "result", "error", "timestamp");
+
+    private RpcMessageReader() {
+    }
+
+    /**
+     * Read a JSON text frame
+     *
+     * @param maxBatchSize largest batch array accepted
+     */
+    public static ParsedFrame read(RpcCodec codec, String text, int maxBatchSize) throws IOException {
+        try (JsonParser parser = codec.createParser(text)) {
+            return read(codec, parser, maxBatchSize, JsonLocation::getCharOffset,
+                (start, end) -> RawParams.ofJson(codec, text.substring(start, end)),
+                (start, end, idStart, idEnd) -> end < 0
+                    ? RawFrame.ofText(codec, text, idStart, idEnd)
+                    : RawFrame.ofText(codec, text.substring(start, end), shift(idStart, start), shift(idEnd, start)));
+        }
+    }
+
+    /**
+     * Read a frame in the codec's format; for JSON the params stay a slice of data
+     */
+    public static ParsedFrame read(RpcCodec codec, byte[] data, int offset, int length, int maxBatchSize) 
+            throws IOException {
+        try (JsonParser parser = codec.createParser(data, offset, length)) {
+            if (codec.getFactory().canHandleBinaryNatively()) {
+                return read(codec, parser, maxBatchSize, null, null, null);
+            }
+            // Byte offsets are relative to the start of the parsed range
+            return read(codec, parser, maxBatchSize, JsonLocation::getByteOffset,
+                (start, end) -> RawParams.ofJson(codec, data, offset + start, end - start),
+                (start, end, idStart, idEnd) -> end < 0
+                    ? RawFrame.ofBytes(codec, data, offset, length, idStart, idEnd)
+                    : RawFrame.ofBytes(codec, data, offset + start, end - start, 
+                        shift(idStart, start), shift(idEnd, start)));
+        }
+    }
+
+    private static int shift(int position, int start) {
+        return position < 0 ? position : position - start;
+    }
+
+    /**
+     * @param offsets position of a location in the input, null for binary formats
+     *                whose parsers report no reliable offsets
+     */
+    private static ParsedFrame read(RpcCodec codec, JsonParser parser, int maxBatchSize, 
+                                    ToLongFunction<JsonLocation> offsets, SliceFactory<RawParams> paramsSlice, 
+                                    FrameFactory frameFactory) throws IOException {
+        JsonToken first = parser.nextToken();
+        if (first == JsonToken.START_OBJECT) {
+            RpcMessage message = readObject(codec, parser, offsets, paramsSlice, frameFactory, true);
+            return new ParsedFrame(List.of(message), false);
+        }
+        if (first != JsonToken.START_ARRAY) {
+            throw MismatchedInputException.from(parser, RpcMessage.class, "RPC message must be an object or an array");
+        }
+
+        List<RpcMessage> messages = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (messages.size() >= maxBatchSize) {
+                throw MismatchedInputException.from(parser, List.class, "Batch larger than " + maxBatchSize + " messages");
+            }
+            messages.add(readObject(codec, parser, offsets, paramsSlice, frameFactory, false));
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw MismatchedInputException.from(parser, RpcMessage.class, "Batch elements must be objects");
+        }
+        if (messages.isEmpty()) {
+            throw MismatchedInputException.from(parser, List.class, "Empty batch");
+        }
+        return new ParsedFrame(messages, true);
+    }
+
+    /**
+     * Read one message object, the parser being on its START_OBJECT
+     *
+     * @param wholeFrame the object spans the entire input
+     */
+    private static RpcMessage readObject(RpcCodec codec, JsonParser parser, ToLongFunction<JsonLocation> offsets,
+                                         SliceFactory<RawParams> paramsSlice, FrameFactory frameFactory, 
+                                         boolean wholeFrame) throws IOException {
+        boolean textual = offsets != null;
+        int objectStart = textual ? (int) offsets.applyAsLong(parser.getTokenLocation()) : 0;
+        RpcMessage message = new RpcMessage();
+        int idStart = -1;
+        int idEnd = -1;
+        boolean bodyDeferred = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "id":
+                    int valueStart = textual ? (int) offsets.applyAsLong(parser.getTokenLocation()) : -1;
+                    message.setId(readString(codec, parser, value));
+                    if (textual && value.isScalarValue()) {
+                        idStart = valueStart;
+                        idEnd = (int) offsets.applyAsLong(parser.getCurrentLocation());
+                    }
+                    break;
+                case "type":
+                    message.setType(codec.readMessageType(parser));
+                    break;
+                case "method":
+                    message.setMethod(readString(codec, parser, value));
+                    break;
+                case "params":
+                    if (value == JsonToken.START_OBJECT) {
+                        message.setRawParams(textual
+                            ? sliceParams(parser, offsets, paramsSlice)
+                            : captureParams(codec, parser));
+                    } else if (value == JsonToken.VALUE_NULL) {
+                        message.setParams(null);
+                    } else {
+                        throw MismatchedInputException.from(parser, Map.class, "params must be an object");
+                    }
+                    break;
+                case "result":
+                    if (textual) {
+                        parser.skipChildren();
+                        bodyDeferred = true;
+                    } else {
+                        message.setResult(codec.readValue(parser));
+                    }
+                    break;
+                case "error":
+                    if (textual) {
+                        parser.skipChildren();
+                        bodyDeferred = true;
+                    } else {
+                        message.setError(codec.readError(parser));
+                    }
+                    break;
+                case "timestamp":
+                    message.setTimestamp(parser.getValueAsLong(message.getTimestamp()));
+                    break;
+                default:
+                    if (codec.isFailOnUnknownProperties()) {
+                        throw UnrecognizedPropertyException.from(parser, RpcMessage.class, field, KNOWN_FIELDS);
+                    }
+                    parser.skipChildren();
+            }
+        }
+
+        if (textual) {
+            int objectEnd = (int) offsets.applyAsLong(parser.getCurrentLocation());
+            RawFrame rawFrame = wholeFrame 
+                ? frameFactory.create(0, -1, idStart, idEnd) 
+                : frameFactory.create(objectStart, objectEnd, idStart, idEnd);
+            message.setRawFrame(rawFrame, bodyDeferred);
+        }
+        return message;
+    }
+
+    private static RawParams sliceParams(JsonParser parser, ToLongFunction<JsonLocation> offsets,
+                                         SliceFactory<RawParams> paramsSlice) throws IOException {
+        int start = (int) offsets.applyAsLong(parser.getTokenLocation());
+        parser.skipChildren();
+        int end = (int) offsets.applyAsLong(parser.getCurrentLocation());
+        return paramsSlice.create(start, end);
+    }
+
+    private static RawParams captureParams(RpcCodec codec, JsonParser parser) throws IOException {
+        long start = parser.getTokenLocation().getByteOffset();
+        TokenBuffer tokens = new TokenBuffer(parser);
+        tokens.copyCurrentStructure(parser);
+        long end = parser.getCurrentLocation().getByteOffset();
+        // A parser without byte offsets must not make the params look empty to the size checks
+        int size = start >= 0 && end > start ? (int) (end - start) : encodedSize(codec, tokens);
+        return RawParams.ofTokens(codec, tokens, size);
+    }
+
+    /**
+     * Size of the tokens written out again in the codec's format
+     */
+    private static int encodedSize(RpcCodec codec, TokenBuffer tokens) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (JsonGenerator generator = codec.getFactory().createGenerator(counter)) {
+            tokens.serialize(generator);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, counter.count);
+    }
+
+    private static String readString(RpcCodec codec, JsonParser parser, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_STRING ? parser.getText() : codec.readString(parser);
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SliceFactory<T> {
+        T create(int start, int end);
+    }
+
+    @FunctionalInterface
+    private interface FrameFactory {
+        /**
+         * @param end end of the message, -1 if it extends to the end of the input
+         */
+        RawFrame create(int start, int end, int idStart, int idEnd);
+    }
+
+    /**
+     * Messages read from one frame
+     */
+    public static final class ParsedFrame {
+        private final List<RpcMessage> messages;
+        private final boolean batch;
+
+        ParsedFrame(List<RpcMessage> messages, boolean batch) {
+            this.messages = messages;
+            this.batch = batch;
+        }
+
+        public List<RpcMessage> getMessages() {
+            return messages;
+        }
+
+        /**
+         * Whether the frame was a batch array; replies to it go out as one array too
+         */
+        public boolean isBatch() {
+            return batch;
+        }
+    }
+}
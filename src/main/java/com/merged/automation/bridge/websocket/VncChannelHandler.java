@@ -0,0 +1,93 @@
+package com.merged.automation.bridge.websocket;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WebSocketPartialListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary WebSocket of one party of a VNC relay channel, opened with a ticket
+ * from vnc.open_channel. A source's updates are read piece by piece straight
+ * into a pooled buffer instead of being assembled into a byte array first.
+ * Viewers may send the text message "keyframe" to ask for a full frame.
+ */
+public class VncChannelHandler implements WebSocketPartialListener {
+    private static final Logger logger = LoggerFactory.getLogger(VncChannelHandler.class);
+
+    private final VncRelay relay;
+    private final VncRelay.Ticket ticket;
+    private Session session;
+    private VncRelay.Viewer viewer;
+    // Update being received, only touched by Jetty's read callbacks
+    private FrameEncoder.BufferOutputStream partial;
+
+    public VncChannelHandler(VncRelay relay, VncRelay.Ticket ticket) {
+        this.relay = relay;
+        this.ticket = ticket;
+    }
+
+    @Override
+    public void onWebSocketConnect(Session session) {
+        this.session = session;
+
+        // Updates are larger than RPC messages; the relay checks their total size itself
+        session.setMaxFrameSize(relay.getMaxFrameSize());
+        if (ticket.isSource()) {
+            relay.attachSource(ticket, session);
+        } else {
+            viewer = relay.attachViewer(ticket, session);
+        }
+    }
+
+    @Override
+    public void onWebSocketPartialBinary(ByteBuffer payload, boolean fin) {
+        if (!ticket.isSource()) {
+            return;
+        }
+
+        if (partial == null) {
+            // Most updates arrive in one piece, which then fills the buffer exactly
+            partial = relay.newFrameBuffer(fin ? payload.remaining() : payload.remaining() * 2);
+        }
+        if (partial.size() + payload.remaining() > relay.getMaxFrameSize()) {
+            partial.discard();
+            partial = null;
+            session.close(StatusCode.MESSAGE_TOO_LARGE, "VNC update exceeds " + relay.getMaxFrameSize() + " bytes");
+            return;
+        }
+        partial.write(payload);
+
+        if (fin) {
+            EncodedFrame frame = partial.toFrame(true);
+            partial = null;
+            relay.publish(ticket, session, frame);
+        }
+    }
+
+    @Override
+    public void onWebSocketPartialText(String payload, boolean fin) {
+        if (viewer != null && "keyframe".equals(payload)) {
+            viewer.resync();
+            relay.requestKeyframe(ticket.getDeviceId());
+        }
+    }
+
+    @Override
+    public void onWebSocketClose(int statusCode, String reason) {
+        logger.info("VNC connection closed for {} on device {}: {} - {}",
+            ticket.getClientId(), ticket.getDeviceId(), statusCode, reason);
+        if (partial != null) {
+            partial.discard();
+            partial = null;
+        }
+        relay.detach(ticket, session, viewer);
+    }
+
+    @Override
+    public void onWebSocketError(Throwable cause) {
+        logger.error("VNC WebSocket error for {}: {}", ticket.getClientId(), cause.getMessage());
+    }
+}
@@ -0,0 +1,383 @@
+package com.merged.automation.bridge.websocket;
+
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.ClientInfo;
+import com.merged.automation.bridge.service.ClientManager;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Relays VNC framebuffer updates from the automation service of a device to
+ * the viewers watching it. Every party uses its own binary WebSocket on
+ * /vnc, entered with a one-time ticket from vnc.open_channel, so updates
+ * never go through RPC parsing or the RPC outbound queues.
+ * An update is copied once into a pooled buffer and that buffer is written
+ * to every viewer. Each viewer has a short queue of its own; a viewer that
+ * falls further behind drops delta updates until the next keyframe, which
+ * the source is asked for, so it skips ahead instead of slowing the others.
+ * The first byte of an update holds flags, {@link #FLAG_KEYFRAME} marking a
+ * full frame; the rest is passed on untouched.
+ */
+public class VncRelay implements ClientManager.ClientManagerListener {
+    private static final Logger logger = LoggerFactory.getLogger(VncRelay.class);
+
+    public static final int FLAG_KEYFRAME = 0x01;
+    public static final String KEYFRAME_REQUEST = "{\"request\":\"keyframe\"}";
+
+    private final FrameEncoder frameEncoder;
+    private final int maxFrameSize;
+    private final int maxPendingFrames;
+    private final long keyframeRequestIntervalNanos;
+    private final long ticketTimeout;
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    // Channels by device id, created by the first party to attach and removed with the last
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder framesDropped = new LongAdder();
+    private final LongAdder keyframeRequests = new LongAdder();
+
+    public VncRelay(FrameEncoder frameEncoder, BridgeConfig bridgeConfig) {
+        this.frameEncoder = frameEncoder;
+        this.maxFrameSize = bridgeConfig.getVncMaxFrameSize();
+        this.maxPendingFrames = bridgeConfig.getVncMaxPendingFrames();
+        this.keyframeRequestIntervalNanos = TimeUnit.MILLISECONDS.toNanos(bridgeConfig.getVncKeyframeRequestInterval());
+        this.ticketTimeout = bridgeConfig.getVncTicketTimeout();
+    }
+
+    /**
+     * Issue a ticket for a relay connection. The caller decides the role: only
+     * the automation service owning the device may publish to its channel, and
+     * a viewer only gets a ticket once that service has approved it.
+     *
+     * @param source whether the connection publishes updates rather than views them
+     */
+    public Map<String, Object> openChannel(String clientId, String deviceId, boolean source) {
+        long now = System.currentTimeMillis();
+        tickets.values().removeIf(ticket -> ticket.expiresAt <= now);
+
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String id = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tickets.put(id, new Ticket(clientId, deviceId, source, now + ticketTimeout));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("path", "/vnc?ticket=" + id);
+        result.put("role", source ? "source" : "viewer");
+        result.put("expiresIn", ticketTimeout);
+        result.put("maxFrameSize", maxFrameSize);
+        return result;
+    }
+
+    /**
+     * Claim a ticket; each ticket opens one connection
+     *
+     * @return null if the ticket is unknown or expired
+     */
+    public Ticket redeem(String id) {
+        Ticket ticket = id != null ? tickets.remove(id) : null;
+        return ticket != null && ticket.expiresAt > System.currentTimeMillis() ? ticket : null;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Buffer an update is assembled in as its pieces arrive
+     */
+    FrameEncoder.BufferOutputStream newFrameBuffer(int initialCapacity) {
+        return frameEncoder.newOutputStream(initialCapacity);
+    }
+
+    /**
+     * Make a connection the device's source, replacing any previous one.
+     * Viewers wait for the new source's first keyframe.
+     */
+    void attachSource(Ticket ticket, Session session) {
+        Session[] replaced = new Session[1];
+        Channel channel = channels.compute(ticket.deviceId, (deviceId, existing) -> {
+            Channel attached = existing != null ? existing : new Channel();
+            replaced[0] = attached.source;
+            attached.source = session;
+            attached.sourceClientId = ticket.clientId;
+            return attached;
+        });
+        if (replaced[0] != null && replaced[0] != session) {
+            replaced[0].close(1000, "Replaced by a new source");
+        }
+        logger.info("VNC source {} attached for device {}", ticket.clientId, ticket.deviceId);
+        if (!channel.viewers.isEmpty()) {
+            channel.viewers.forEach(Viewer::resync);
+            requestKeyframe(channel);
+        }
+    }
+
+    /**
+     * Add a viewer to the device's channel; it gets updates from the next keyframe on
+     */
+    Viewer attachViewer(Ticket ticket, Session session) {
+        Viewer viewer = new Viewer(ticket.clientId, session);
+        Channel channel = channels.compute(ticket.deviceId, (deviceId, existing) -> {
+            Channel attached = existing != null ? existing : new Channel();
+            attached.viewers.add(viewer);
+            return attached;
+        });
+        logger.info("VNC viewer {} attached for device {}", ticket.clientId, ticket.deviceId);
+        requestKeyframe(channel);
+        return viewer;
+    }
+
+    /**
+     * Remove a closed connection, and its channel once nobody is left
+     *
+     * @param viewer the connection's viewer, null for a source
+     */
+    void detach(Ticket ticket, Session session, Viewer viewer) {
+        channels.computeIfPresent(ticket.deviceId, (deviceId, channel) -> {
+            if (viewer != null) {
+                channel.viewers.remove(viewer);
+            } else if (channel.source == session) {
+                channel.source = null;
+                channel.sourceClientId = null;
+            }
+            return channel.source == null && channel.viewers.isEmpty() ? null : channel;
+        });
+        if (viewer != null) {
+            viewer.close();
+        }
+    }
+
+    /**
+     * Pass an update from a source on to the channel's viewers.
+     * Takes over the caller's reference to the frame.
+     */
+    void publish(Ticket ticket, Session session, EncodedFrame frame) {
+        try {
+            Channel channel = channels.get(ticket.deviceId);
+            if (channel == null || channel.source != session || frame.size() == 0) {
+                return;
+            }
+            framesIn.increment();
+            bytesIn.add(frame.size());
+
+            boolean keyframe = (frame.payload().get() & FLAG_KEYFRAME) != 0;
+            boolean resync = false;
+            for (Viewer viewer : channel.viewers) {
+                resync |= viewer.offer(frame, keyframe);
+            }
+            if (resync) {
+                requestKeyframe(channel);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Ask the channel's source for a keyframe, at most once per request interval
+     */
+    void requestKeyframe(String deviceId) {
+        Channel channel = channels.get(deviceId);
+        if (channel != null) {
+            requestKeyframe(channel);
+        }
+    }
+
+    private void requestKeyframe(Channel channel) {
+        Session source = channel.source;
+        if (source == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long last = channel.lastKeyframeRequest.get();
+        if (now - last < keyframeRequestIntervalNanos || !channel.lastKeyframeRequest.compareAndSet(last, now)) {
+            return;
+        }
+        keyframeRequests.increment();
+        source.getRemote().sendString(KEYFRAME_REQUEST, WriteCallback.NOOP);
+    }
+
+    /**
+     * Close the relay connections of a client that left the bridge, and drop its tickets
+     */
+    @Override
+    public void onClientDisconnected(String clientId, ClientInfo clientInfo) {
+        tickets.values().removeIf(ticket -> ticket.clientId.equals(clientId));
+        for (Channel channel : channels.values()) {
+            Session source = channel.source;
+            if (source != null && clientId.equals(channel.sourceClientId)) {
+                source.close(1000, "Client disconnected");
+            }
+            for (Viewer viewer : channel.viewers) {
+                if (viewer.clientId.equals(clientId)) {
+                    viewer.session.close(1000, "Client disconnected");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onClientConnected(String clientId, ClientInfo clientInfo) {
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("channels", channels.size());
+        stats.put("viewers", channels.values().stream().mapToInt(channel -> channel.viewers.size()).sum());
+        stats.put("framesIn", framesIn.sum());
+        stats.put("bytesIn", bytesIn.sum());
+        stats.put("framesOut", framesOut.sum());
+        stats.put("framesDropped", framesDropped.sum());
+        stats.put("keyframeRequests", keyframeRequests.sum());
+        return stats;
+    }
+
+    /**
+     * Permission to open one relay connection for a device
+     */
+    public static final class Ticket {
+        private final String clientId;
+        private final String deviceId;
+        private final boolean source;
+        private final long expiresAt;
+
+        private Ticket(String clientId, String deviceId, boolean source, long expiresAt) {
+            this.clientId = clientId;
+            this.deviceId = deviceId;
+            this.source = source;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getClientId() { return clientId; }
+        public String getDeviceId() { return deviceId; }
+        public boolean isSource() { return source; }
+    }
+
+    private final class Channel {
+        private final Set<Viewer> viewers = ConcurrentHashMap.newKeySet();
+        // The first request goes out at once
+        private final AtomicLong lastKeyframeRequest = new AtomicLong(System.nanoTime() - keyframeRequestIntervalNanos);
+        // Changed inside channels.compute only
+        private volatile Session source;
+        private volatile String sourceClientId;
+    }
+
+    /**
+     * Delivery to one viewer: one write in flight and a short queue behind it
+     */
+    final class Viewer {
+        private final String clientId;
+        private final Session session;
+        private final FrameSender sender;
+        // Guarded by this
+        private final ArrayDeque<EncodedFrame> pending = new ArrayDeque<>();
+        private boolean writing;
+        private boolean needsKeyframe = true;
+        private boolean closed;
+
+        private Viewer(String clientId, Session session) {
+            this.clientId = clientId;
+            this.session = session;
+            this.sender = FrameSender.of(session);
+        }
+
+        /**
+         * Queue an update, dropping it if the viewer is too far behind or still waits for a keyframe
+         *
+         * @return true if the viewer waits for a keyframe
+         */
+        boolean offer(EncodedFrame frame, boolean keyframe) {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                if (keyframe) {
+                    // A keyframe supersedes everything still queued
+                    needsKeyframe = false;
+                    framesDropped.add(pending.size());
+                    pending.forEach(EncodedFrame::release);
+                    pending.clear();
+                } else if (needsKeyframe) {
+                    framesDropped.increment();
+                    return true;
+                } else if (pending.size() >= maxPendingFrames) {
+                    // Later deltas are useless without this one
+                    framesDropped.increment();
+                    needsKeyframe = true;
+                    return true;
+                }
+
+                frame.retain();
+                if (writing) {
+                    pending.add(frame);
+                    return false;
+                }
+                writing = true;
+            }
+            write(frame);
+            return false;
+        }
+
+        /**
+         * Wait for a keyframe before passing on further updates, e.g. after the source changed
+         */
+        synchronized void resync() {
+            needsKeyframe = true;
+        }
+
+        private void write(EncodedFrame frame) {
+            sender.send(frame, Callback.from(
+                () -> onWritten(frame, null),
+                failure -> onWritten(frame, failure)), false);
+        }
+
+        private void onWritten(EncodedFrame frame, Throwable failure) {
+            frame.release();
+            EncodedFrame next;
+            synchronized (this) {
+                if (failure != null) {
+                    logger.debug("VNC write to {} failed: {}", clientId, failure.getMessage());
+                    writing = false;
+                    closeLocked();
+                    return;
+                }
+                framesOut.increment();
+                next = pending.poll();
+                if (next == null) {
+                    writing = false;
+                    return;
+                }
+            }
+            write(next);
+        }
+
+        synchronized void close() {
+            closeLocked();
+        }
+
+        private void closeLocked() {
+            closed = true;
+            pending.forEach(EncodedFrame::release);
+            pending.clear();
+        }
+    }
+}
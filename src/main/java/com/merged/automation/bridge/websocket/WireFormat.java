@@ -0,0 +1,132 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Encoding of RPC messages on a connection, negotiated through the
+ * WebSocket subprotocol header. All formats map to the same message model;
+ * clients that offer no known subprotocol get JSON text frames.
+ */
+public enum WireFormat {
+    // Only text output spells out doubles; the binary formats write their bits
+    JSON("automation-rpc.json", false, () -> JsonFactory.builder()
+        .enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER)
+        .build()),
+    CBOR("automation-rpc.cbor", true, CBORFactory::new),
+    SMILE("automation-rpc.smile", true, SmileFactory::new),
+    MSGPACK("automation-rpc.msgpack", true, MessagePackFactory::new);
+
+    private final String subprotocol;
+    private final boolean binary;
+    private final Supplier<JsonFactory> factory;
+
+    WireFormat(String subprotocol, boolean binary, Supplier<JsonFactory> factory) {
+        this.subprotocol = subprotocol;
+        this.binary = binary;
+        this.factory = factory;
+    }
+
+    /**
+     * Pick the first offered subprotocol the bridge understands
+     *
+     * @return null if none of the offered subprotocols is supported
+     */
+    public static WireFormat negotiate(List<String> offeredSubprotocols) {
+        if (offeredSubprotocols == null) {
+            return null;
+        }
+        for (String offered : offeredSubprotocols) {
+            for (WireFormat format : values()) {
+                if (format.subprotocol.equalsIgnoreCase(offered.trim())) {
+                    return format;
+                }
+            }
+        }
+        return null;
+    }
+
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /**
+     * Whether messages in this format travel as binary frames
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * New parser and generator factory for this format, to be tuned by its codec
+     */
+    public JsonFactory createFactory() {
+        return factory.get();
+    }
+
+    /**
+     * Whether encoded messages can be joined into an array frame without re-encoding.
+     * Smile documents each carry their own header, so they cannot.
+     */
+    public boolean canJoin() {
+        return this != SMILE;
+    }
+
+    /**
+     * Join encoded messages into one array frame, as if the list had been encoded
+     */
+    public EncodedFrame join(List<EncodedFrame> frames, FrameEncoder encoder) {
+        try {
+            return encoder.write(binary, out -> writeJoined(frames, out));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to join frames", e);
+        }
+    }
+
+    private void writeJoined(List<EncodedFrame> frames, FrameEncoder.BufferOutputStream out) {
+        switch (this) {
+            case JSON:
+                out.write('[');
+                for (int i = 0; i < frames.size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    frames.get(i).writeTo(out);
+                }
+                out.write(']');
+                break;
+            case CBOR:
+                // Indefinite-length array
+                out.write(0x9F);
+                frames.forEach(frame -> frame.writeTo(out));
+                out.write(0xFF);
+                break;
+            case MSGPACK:
+                int count = frames.size();
+                if (count < 16) {
+                    out.write(0x90 | count);
+                } else if (count < 65536) {
+                    out.write(0xDC);
+                    out.write(count >>> 8);
+                    out.write(count);
+                } else {
+                    out.write(0xDD);
+                    for (int shift = 24; shift >= 0; shift -= 8) {
+                        out.write(count >>> shift);
+                    }
+                }
+                frames.forEach(frame -> frame.writeTo(out));
+                break;
+            default:
+                throw new UnsupportedOperationException(this + " frames cannot be joined");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.merged.automation.bridge;
+
+import com.merged.automation.bridge.websocket.WireFormat;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Which subprotocol the /ws handshake answers with
+ */
+public class AutomationBridgeServerTest {
+
+    private static String accept(String... offered) {
+        List<String> subprotocols = List.of(offered);
+        return AutomationBridgeServer.acceptSubprotocol(WireFormat.negotiate(subprotocols), subprotocols);
+    }
+
+    @Test
+    public void negotiatedFormatIsAccepted() {
+        assertEquals("automation-rpc.cbor", accept("automation-rpc.cbor"));
+        assertEquals("automation-rpc.json", accept("bearer.abc", "automation-rpc.json"));
+        assertEquals("automation-rpc.msgpack", accept("automation-rpc.msgpack", "bearer.abc"));
+    }
+
+    @Test
+    public void bearerEntryIsEchoedWhenNoFormatIsNegotiated() {
+        assertEquals("bearer.abc", accept("bearer.abc"));
+        assertEquals("bearer.abc", accept("bearer.abc", "json"));
+        assertEquals("bearer.abc", accept("json", " bearer.abc "));
+    }
+
+    @Test
+    public void nothingIsAcceptedWithoutAFormatOrToken() {
+        assertNull(accept());
+        assertNull(accept("json", "chat"));
+        assertNull(AutomationBridgeServer.acceptSubprotocol(null, null));
+    }
+}
@@ -0,0 +1,47 @@
+package com.merged.automation.bridge;
+
+import java.lang.reflect.Field;
+
+/**
+ * Sets private settings fields, as Spring would, for tests that need non-default values
+ */
+public final class TestFields {
+
+    private TestFields() {
+    }
+
+    public static <T> T set(T target, String name, Object value) {
+        for (Class<?> type = target.getClass(); type != Object.class; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return target;
+            } catch (NoSuchFieldException e) {
+                // Declared further up
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + target.getClass());
+    }
+
+    /**
+     * Read a private field, for checking state a class does not expose
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> V get(Object target, String name) {
+        for (Class<?> type = target.getClass(); type != Object.class; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return (V) field.get(target);
+            } catch (NoSuchFieldException e) {
+                // Declared further up
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + target.getClass());
+    }
+}
@@ -0,0 +1,58 @@
+package com.merged.automation.bridge.config;
+
+import com.merged.automation.bridge.security.SecurityConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigLoaderTest {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("bridge.outbound.high-watermark");
+        System.clearProperty("bridge.security.rate-limit.client-quotas");
+    }
+
+    @Test
+    public void bindsValuesFromApplicationYml() {
+        BridgeConfig config = ConfigLoader.bind(new BridgeConfig());
+
+        assertEquals(1024, config.getOutboundHighWatermark());
+        assertEquals(65536, config.getLimitsMaxMessageSize());
+        assertEquals(List.of("automationId", "deviceId"), config.getSubscriptionKeyParams());
+    }
+
+    @Test
+    public void systemPropertiesOverrideApplicationYml() {
+        System.setProperty("bridge.outbound.high-watermark", "77");
+        System.setProperty("bridge.security.rate-limit.client-quotas", "automation_scheduler=600:120,automation_service=50");
+
+        BridgeConfig config = ConfigLoader.bind(new BridgeConfig());
+        SecurityConfig securityConfig = ConfigLoader.bind(new SecurityConfig());
+
+        assertEquals(77, config.getOutboundHighWatermark());
+        assertEquals(List.of("automation_scheduler=600:120", "automation_service=50"),
+            securityConfig.getRateLimitClientQuotas());
+    }
+
+    @Test
+    public void bindsSecurityDefaultsFromApplicationYml() {
+        SecurityConfig config = ConfigLoader.bind(new SecurityConfig());
+
+        assertEquals(Set.of("127.0.0.1", "::1"), config.getAllowedIps());
+        assertTrue(config.isRequireAuth());
+        assertEquals(100, config.getRateLimitRequests());
+        assertEquals(List.of("automation.execute=10", "vnc.start=5"), config.getRateLimitMethodCosts());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsValuesOfTheWrongType() {
+        System.setProperty("bridge.outbound.high-watermark", "lots");
+        ConfigLoader.bind(new BridgeConfig());
+    }
+}
@@ -0,0 +1,61 @@
+package com.merged.automation.bridge.model;
+
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.websocket.RpcCodec;
+import com.merged.automation.bridge.websocket.RpcCodecs;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RawFrameTest {
+
+    private final RpcCodec codec = new RpcCodecs(new BridgeConfig()).json();
+
+    private static String write(RawFrame frame, String id) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.writeWithId(id, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private RawFrame frame(String json, String idValue) {
+        int idStart = json.indexOf(idValue);
+        return RawFrame.ofText(codec, json, idStart, idStart + idValue.length());
+    }
+
+    @Test
+    public void replacesStringId() throws IOException {
+        String json = "{\"id\":\"abc\",\"type\":\"REQUEST\"}";
+        assertEquals("{\"id\":\"bridge-1\",\"type\":\"REQUEST\"}", write(frame(json, "\"abc\""), "bridge-1"));
+    }
+
+    @Test
+    public void replacesNumericAndNullIdsWithString() throws IOException {
+        assertEquals("{\"id\":\"bridge-7\",\"method\":\"m\"}", write(frame("{\"id\":42,\"method\":\"m\"}", "42"), "bridge-7"));
+        assertEquals("{\"id\":\"bridge-7\",\"method\":\"m\"}", write(frame("{\"id\":null,\"method\":\"m\"}", "null"), "bridge-7"));
+    }
+
+    @Test
+    public void writesNullIdAsNullLiteral() throws IOException {
+        assertEquals("{\"id\":null,\"type\":\"ERROR\"}", write(frame("{\"id\":\"abc\",\"type\":\"ERROR\"}", "\"abc\""), null));
+    }
+
+    @Test
+    public void escapesIdAndKeepsBytesFramesIntact() throws IOException {
+        byte[] data = "xx{\"id\":\"a\",\"p\":\"é\"}yy".getBytes(StandardCharsets.UTF_8);
+        RawFrame frame = RawFrame.ofBytes(codec, data, 2, data.length - 4, 6, 9);
+
+        assertEquals("{\"id\":\"q\\\"uote\",\"p\":\"é\"}", write(frame, "q\"uote"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesFrameWithoutId() throws IOException {
+        RawFrame frame = RawFrame.ofText(codec, "{\"type\":\"NOTIFICATION\"}", -1, -1);
+        assertFalse(frame.hasId());
+        write(frame, "bridge-1");
+    }
+}
@@ -0,0 +1,130 @@
+package com.merged.automation.bridge.security;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpPrefixTrieTest {
+
+    private final IpPrefixTrie trie = new IpPrefixTrie();
+
+    private void add(String network, int prefixLength) throws UnknownHostException {
+        trie.add(InetAddress.getByName(network).getAddress(), prefixLength);
+    }
+
+    @Test
+    public void matchesIpv4Networks() throws Exception {
+        add("10.0.0.0", 8);
+        add("192.168.1.0", 24);
+        add("203.0.113.7", 32);
+
+        assertTrue(trie.contains("10.0.0.1"));
+        assertTrue(trie.contains("10.255.255.255"));
+        assertTrue(trie.contains("192.168.1.200"));
+        assertTrue(trie.contains("203.0.113.7"));
+        assertFalse(trie.contains("11.0.0.1"));
+        assertFalse(trie.contains("192.168.2.1"));
+        assertFalse(trie.contains("203.0.113.8"));
+    }
+
+    @Test
+    public void zeroLengthPrefixMatchesEveryAddressOfItsFamily() throws Exception {
+        add("0.0.0.0", 0);
+
+        assertTrue(trie.contains("1.2.3.4"));
+        assertFalse(trie.contains("::1"));
+    }
+
+    @Test
+    public void shorterPrefixCoversLongerOnes() throws Exception {
+        add("10.0.0.0", 8);
+        int nodes = trie.size();
+        add("10.1.2.0", 24);
+        add("10.1.2.3", 32);
+
+        assertTrue(trie.contains("10.200.0.1"));
+        // Networks inside an existing one add no nodes
+        assertEquals(nodes, trie.size());
+    }
+
+    @Test
+    public void matchesIpv6Networks() throws Exception {
+        add("2001:db8::", 32);
+        add("fd00:1:2:3::", 64);
+
+        assertTrue(trie.contains("2001:db8:0:0:0:0:0:1"));
+        assertTrue(trie.contains("2001:0db8:ffff:1:2:3:4:5"));
+        assertTrue(trie.contains("fd00:1:2:3:abcd::1"));
+        assertFalse(trie.contains("2001:db9::1"));
+        assertFalse(trie.contains("fd00:1:2:4::1"));
+    }
+
+    @Test
+    public void expandsTheDoubleColon() throws Exception {
+        add("::1", 128);
+        add("2001:db8::", 128);
+        add("fe80::1:0:0:2", 128);
+
+        assertTrue(trie.contains("::1"));
+        assertTrue(trie.contains("0:0:0:0:0:0:0:1"));
+        assertTrue(trie.contains("2001:db8::"));
+        assertTrue(trie.contains("2001:DB8:0::0"));
+        assertTrue(trie.contains("fe80::1:0:0:2"));
+        assertTrue(trie.contains("fe80:0:0:0:1::2"));
+        assertFalse(trie.contains("::"));
+        assertFalse(trie.contains("::2"));
+    }
+
+    @Test
+    public void ignoresTheZoneId() throws Exception {
+        add("fe80::", 10);
+
+        assertTrue(trie.contains("fe80::1%eth0"));
+        assertTrue(trie.contains("fe80:0:0:0:0:0:0:1%2"));
+        assertFalse(trie.contains("fec0::1%eth0"));
+    }
+
+    @Test
+    public void readsEmbeddedDottedIpv4() throws Exception {
+        add("64:ff9b::", 96);
+
+        assertTrue(trie.contains("64:ff9b::192.0.2.33"));
+        assertTrue(trie.contains("64:ff9b:0:0:0:0:10.1.2.3"));
+        assertFalse(trie.contains("64:ff9c::192.0.2.33"));
+    }
+
+    @Test
+    public void matchesEmbeddedIpv4AgainstTheSameHexAddress() throws Exception {
+        add("64:ff9b::c000:221", 128);
+
+        assertTrue(trie.contains("64:ff9b::192.0.2.33"));
+        assertFalse(trie.contains("64:ff9b::192.0.2.34"));
+    }
+
+    @Test
+    public void rejectsMalformedAddresses() throws Exception {
+        add("0.0.0.0", 0);
+        add("::", 0);
+
+        String[] malformed = {
+            "", "1.2.3", "1.2.3.4.5", "1.2.3.256", "1..2.3", "1.2.3.4.", "a.b.c.d", "-1.2.3.4",
+            ":", ":::", "1::2::3", "12345::", "g::1", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9",
+            "1:2:3:4:5:6:7::8", "::1.2.3", "::1.2.3.4:5", "::1.2.3.256", "1.2.3.4::"
+        };
+        for (String address : malformed) {
+            assertFalse(address, trie.contains(address));
+        }
+    }
+
+    @Test
+    public void emptyTrieMatchesNothing() {
+        assertFalse(trie.contains("127.0.0.1"));
+        assertFalse(trie.contains("::1"));
+        assertEquals(2, trie.size());
+    }
+}
@@ -0,0 +1,102 @@
+package com.merged.automation.bridge.security;
+
+import com.merged.automation.bridge.TestFields;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpWhitelistServiceTest {
+
+    private static final String RESOLVER_THREAD = "ip-whitelist-resolver";
+
+    private final IpWhitelistService service = new IpWhitelistService();
+
+    @After
+    public void shutdown() throws InterruptedException {
+        service.shutdown();
+        awaitResolverStopped();
+    }
+
+    private void configure(String... allowedIps) {
+        SecurityConfig config = new SecurityConfig();
+        TestFields.set(config, "allowedIps", List.of(allowedIps));
+        TestFields.set(service, "securityConfig", config);
+        service.init();
+    }
+
+    private static boolean resolverRunning() {
+        return Thread.getAllStackTraces().keySet().stream()
+            .anyMatch(thread -> thread.getName().equals(RESOLVER_THREAD) && thread.isAlive());
+    }
+
+    private static void awaitResolverStopped() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (resolverRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void allowsConfiguredNetworksAndLocalhost() {
+        configure("10.0.0.0/8", "2001:db8::/32", "192.0.2.1");
+
+        assertTrue(service.isIpAllowed("10.20.30.40"));
+        assertTrue(service.isIpAllowed("2001:db8::5"));
+        assertTrue(service.isIpAllowed("192.0.2.1"));
+        assertTrue(service.isIpAllowed("127.0.0.1"));
+        assertTrue(service.isIpAllowed("::1"));
+        assertFalse(service.isIpAllowed("192.0.2.2"));
+        assertFalse(service.isIpAllowed("2001:db9::5"));
+    }
+
+    @Test
+    public void acceptsBracketedIpv6Addresses() {
+        configure("2001:db8::/32");
+
+        assertTrue(service.isIpAllowed("[::1]"));
+        assertTrue(service.isIpAllowed("[0:0:0:0:0:0:0:1]"));
+        assertTrue(service.isIpAllowed("[2001:db8::5]"));
+        assertFalse(service.isIpAllowed("[2001:db9::5]"));
+        assertFalse(service.isIpAllowed("[]"));
+    }
+
+    @Test
+    public void invalidRulesAreSkipped() {
+        configure("10.0.0.0/33", "10.0.0.0/x", "192.0.2.0/24");
+
+        assertFalse(service.isIpAllowed("10.0.0.1"));
+        assertTrue(service.isIpAllowed("192.0.2.9"));
+    }
+
+    @Test
+    public void wildcardOrNoRulesAllowAll() {
+        configure("*");
+        assertTrue(service.isIpAllowed("198.51.100.1"));
+
+        IpWhitelistService open = new IpWhitelistService();
+        TestFields.set(open, "securityConfig", new SecurityConfig());
+        open.init();
+        assertTrue(open.isIpAllowed("198.51.100.1"));
+    }
+
+    @Test
+    public void hostnameRulesStartResolvingOnInitAndStopOnShutdown() throws Exception {
+        configure("10.0.0.0/8", "localhost");
+        assertTrue(resolverRunning());
+
+        service.shutdown();
+        awaitResolverStopped();
+        assertFalse(resolverRunning());
+    }
+
+    @Test
+    public void noResolverWithoutHostnameRules() {
+        configure("10.0.0.0/8");
+
+        assertFalse(resolverRunning());
+    }
+}
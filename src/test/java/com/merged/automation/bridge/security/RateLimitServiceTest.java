@@ -0,0 +1,143 @@
+package com.merged.automation.bridge.security;
+
+import com.merged.automation.bridge.TestFields;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitServiceTest {
+
+    private static final String EXECUTE = "automation.execute";
+    private static final String PING = "server.ping";
+
+    private final SecurityConfig config = new SecurityConfig();
+    private final RateLimitService service = new RateLimitService();
+
+    /**
+     * One request a second refilled, so nothing refills while a test runs
+     */
+    public RateLimitServiceTest() {
+        TestFields.set(config, "rateLimitWindow", 3600);
+        TestFields.set(config, "rateLimitRequests", 3600);
+        TestFields.set(config, "rateLimitBurst", 5);
+        TestFields.set(config, "rateLimitExpensiveRequests", 20);
+        TestFields.set(config, "rateLimitMethodCosts", List.of("automation.execute=10", "vnc.start=5"));
+        TestFields.set(service, "securityConfig", config);
+    }
+
+    private static int allowedInARow(RateLimitService service, String clientId, String clientType, String method) {
+        int allowed = 0;
+        while (allowed < 1000 && service.isClientAllowed(clientId, clientType, method)) {
+            allowed++;
+        }
+        return allowed;
+    }
+
+    @Test
+    public void cheapMessagesUseTheGeneralBucket() {
+        assertEquals(5, allowedInARow(service, "client-1", null, PING));
+        // Another client has a bucket of its own
+        assertTrue(service.isClientAllowed("client-2", null, PING));
+    }
+
+    @Test
+    public void expensiveMethodsDrawTheirCostFromASeparateBucket() {
+        assertEquals(2, allowedInARow(service, "client-1", null, EXECUTE));
+        assertEquals(0.0, service.getAvailableExpensivePermits("client-1"), 0.01);
+
+        // Heartbeats still get through after the expensive quota is used up
+        assertEquals(5.0, service.getAvailablePermits("client-1"), 0.01);
+        assertTrue(service.isClientAllowed("client-1", null, PING));
+    }
+
+    @Test
+    public void costsAreWeighted() {
+        assertTrue(service.isClientAllowed("client-1", null, "vnc.start"));
+        assertEquals(15.0, service.getAvailableExpensivePermits("client-1"), 0.01);
+        assertTrue(service.isClientAllowed("client-1", null, EXECUTE));
+        assertEquals(5.0, service.getAvailableExpensivePermits("client-1"), 0.01);
+        assertFalse(service.isClientAllowed("client-1", null, EXECUTE));
+        assertTrue(service.isClientAllowed("client-1", null, "vnc.start"));
+    }
+
+    @Test
+    public void expensiveBucketHoldsAtLeastTheDearestCost() {
+        TestFields.set(config, "rateLimitExpensiveRequests", 3);
+
+        assertTrue(service.isClientAllowed("client-1", null, EXECUTE));
+        assertFalse(service.isClientAllowed("client-1", null, EXECUTE));
+    }
+
+    @Test
+    public void clientTypesGetTheirOwnQuotas() {
+        TestFields.set(config, "rateLimitBurst", 0);
+        TestFields.set(config, "rateLimitClientQuotas", List.of("automation_scheduler=7200:40", "AUTOMATION_SERVICE=10800"));
+
+        // Without a burst, one second's worth of requests
+        assertEquals(1, allowedInARow(service, "default", null, PING));
+        assertEquals(2, allowedInARow(service, "scheduler", "automation_scheduler", PING));
+        assertEquals(3, allowedInARow(service, "service", "automation_service", PING));
+
+        assertEquals(2, allowedInARow(service, "default", null, EXECUTE));
+        assertEquals(4, allowedInARow(service, "scheduler", "automation_scheduler", EXECUTE));
+        // No expensive quota given, so the default one
+        assertEquals(2, allowedInARow(service, "service", "automation_service", EXECUTE));
+    }
+
+    @Test
+    public void invalidQuotaEntriesAreSkipped() {
+        TestFields.set(config, "rateLimitBurst", 0);
+        TestFields.set(config, "rateLimitClientQuotas", List.of(
+            "automation_scheduler", "automation_scheduler=many", "automation_scheduler=0",
+            "automation_scheduler=7200:0", "automation_scheduler=1:2:3", "automation_service=7200"));
+        TestFields.set(config, "rateLimitMethodCosts", List.of("automation.execute", "vnc.start=0", "x=y", "vnc.stop=4"));
+
+        assertEquals(1, allowedInARow(service, "scheduler", "automation_scheduler", PING));
+        assertEquals(2, allowedInARow(service, "service", "automation_service", PING));
+        // Methods with invalid costs count as cheap and use the one-request general bucket
+        assertEquals(1, allowedInARow(service, "client-1", null, EXECUTE));
+        assertTrue(service.isClientAllowed("client-2", null, "vnc.stop"));
+        assertEquals(16.0, service.getAvailableExpensivePermits("client-2"), 0.01);
+    }
+
+    @Test
+    public void authenticatingSwitchesToTheTypeQuota() {
+        TestFields.set(config, "rateLimitBurst", 0);
+        TestFields.set(config, "rateLimitClientQuotas", List.of("automation_scheduler=7200"));
+
+        assertEquals(1, allowedInARow(service, "client-1", null, PING));
+        assertEquals(2, allowedInARow(service, "client-1", "automation_scheduler", PING));
+    }
+
+    @Test
+    public void ipLimitIsSeparateFromClientLimits() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(service.isAllowed("client-" + i, null, "192.0.2.1", PING));
+        }
+        assertFalse(service.isAllowed("client-5", null, "192.0.2.1", PING));
+        assertTrue(service.isAllowed("client-5", null, "192.0.2.2", PING));
+    }
+
+    @Test
+    public void cleanupDropsOnlyIdleBuckets() throws Exception {
+        // One request a millisecond, so a used general bucket is full again almost at once
+        TestFields.set(config, "rateLimitRequests", 3_600_000);
+        TestFields.set(config, "rateLimitIdleTimeout", 0L);
+        service.isAllowed("quiet", null, "192.0.2.1", PING);
+        service.isAllowed("busy", null, "192.0.2.2", EXECUTE);
+        Thread.sleep(20);
+
+        service.cleanupOldLimiters();
+
+        Map<String, ?> clients = TestFields.get(service, "clientLimiters");
+        Map<String, ?> ips = TestFields.get(service, "ipLimiters");
+        assertEquals(1, clients.size());
+        assertTrue(clients.containsKey("busy"));
+        assertEquals(0, ips.size());
+    }
+}
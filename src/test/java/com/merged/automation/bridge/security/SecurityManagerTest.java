@@ -0,0 +1,161 @@
+package com.merged.automation.bridge.security;
+
+import com.merged.automation.bridge.TestFields;
+import com.merged.automation.bridge.model.RpcMessage;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tokens presented in the upgrade request and the identity they bind to the connection
+ */
+public class SecurityManagerTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+    private static final String REMOTE_IP = "192.0.2.1";
+
+    private final SecurityConfig config = newConfig(SECRET, 3_600_000);
+    private final JwtService jwtService = newJwtService(config);
+    private final IpWhitelistService ipWhitelistService = new IpWhitelistService();
+    private final SecurityManager securityManager = new SecurityManager();
+
+    public SecurityManagerTest() {
+        TestFields.set(config, "rateLimitBurst", 100);
+        TestFields.set(config, "requireAuth", true);
+        TestFields.set(ipWhitelistService, "securityConfig", config);
+        RateLimitService rateLimitService = new RateLimitService();
+        TestFields.set(rateLimitService, "securityConfig", config);
+
+        TestFields.set(securityManager, "securityConfig", config);
+        TestFields.set(securityManager, "jwtService", jwtService);
+        TestFields.set(securityManager, "ipWhitelistService", ipWhitelistService);
+        TestFields.set(securityManager, "rateLimitService", rateLimitService);
+        TestFields.set(securityManager, "validationService", new ValidationService());
+    }
+
+    @After
+    public void shutdown() {
+        ipWhitelistService.shutdown();
+    }
+
+    private static SecurityConfig newConfig(String secret, long expiration) {
+        SecurityConfig config = new SecurityConfig();
+        TestFields.set(config, "jwtSecret", secret);
+        TestFields.set(config, "jwtExpiration", expiration);
+        return config;
+    }
+
+    private static JwtService newJwtService(SecurityConfig config) {
+        JwtService service = new JwtService();
+        TestFields.set(service, "securityConfig", config);
+        return service;
+    }
+
+    private static UpgradeRequest upgradeRequest(String authorization, String... subprotocols) {
+        return (UpgradeRequest) Proxy.newProxyInstance(SecurityManagerTest.class.getClassLoader(),
+            new Class<?>[]{UpgradeRequest.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getHeader":
+                        return "Authorization".equalsIgnoreCase((String) args[0]) ? authorization : null;
+                    case "getSubProtocols":
+                        return List.of(subprotocols);
+                    default:
+                        return null;
+                }
+            });
+    }
+
+    private static RpcMessage authenticate(String type) {
+        RpcMessage message = new RpcMessage("1", RpcMessage.MessageType.NOTIFICATION);
+        message.setMethod("client.authenticate");
+        message.setParams(new LinkedHashMap<>(Map.of("type", type, "name", "Client")));
+        return message;
+    }
+
+    @Test
+    public void tokenIsTakenFromTheAuthorizationHeader() {
+        assertEquals("abc", securityManager.getUpgradeToken(upgradeRequest("Bearer abc")));
+        assertEquals("abc", securityManager.getUpgradeToken(upgradeRequest("bearer  abc ")));
+        // The header wins over a subprotocol offer
+        assertEquals("abc", securityManager.getUpgradeToken(upgradeRequest("Bearer abc", "bearer.xyz")));
+        assertNull(securityManager.getUpgradeToken(upgradeRequest("Basic dXNlcg==")));
+    }
+
+    @Test
+    public void tokenIsTakenFromABearerSubprotocol() {
+        assertEquals("xyz", securityManager.getUpgradeToken(upgradeRequest(null, "bearer.xyz")));
+        assertEquals("xyz", securityManager.getUpgradeToken(upgradeRequest(null, "automation-rpc.cbor", "bearer.xyz")));
+        assertNull(securityManager.getUpgradeToken(upgradeRequest(null, "automation-rpc.json")));
+        assertNull(securityManager.getUpgradeToken(upgradeRequest(null)));
+    }
+
+    @Test
+    public void validTokenGivesAPrincipal() {
+        String token = jwtService.generateToken("scheduler-1", "AUTOMATION_SCHEDULER");
+
+        ClientPrincipal principal = securityManager.authenticateUpgrade(token, REMOTE_IP);
+
+        assertNotNull(principal);
+        assertEquals("scheduler-1", principal.getSubject());
+        assertEquals("automation_scheduler", principal.getClientType());
+        assertEquals(REMOTE_IP, principal.getRemoteIp());
+        assertFalse(principal.isExpired());
+    }
+
+    @Test
+    public void invalidTokensAreRejected() {
+        assertNull(securityManager.authenticateUpgrade("not-a-token", REMOTE_IP));
+
+        // Signed with another secret
+        JwtService otherSigner = newJwtService(newConfig("fedcba9876543210fedcba9876543210", 3_600_000));
+        assertNull(securityManager.authenticateUpgrade(
+            otherSigner.generateToken("scheduler-1", "automation_scheduler"), REMOTE_IP));
+
+        // Already expired when presented
+        JwtService expiredSigner = newJwtService(newConfig(SECRET, -60_000));
+        assertNull(securityManager.authenticateUpgrade(
+            expiredSigner.generateToken("scheduler-1", "automation_scheduler"), REMOTE_IP));
+    }
+
+    @Test
+    public void tokenForAnUnknownClientTypeIsRejected() {
+        assertNull(securityManager.authenticateUpgrade(jwtService.generateToken("admin-1", "admin"), REMOTE_IP));
+        assertNull(securityManager.authenticateUpgrade(jwtService.generateToken("admin-1", null), REMOTE_IP));
+    }
+
+    @Test
+    public void authenticateMustMatchTheTokenType() {
+        ClientPrincipal principal = securityManager.authenticateUpgrade(
+            jwtService.generateToken("scheduler-1", "automation_scheduler"), REMOTE_IP);
+
+        SecurityManager.SecurityCheckResult mismatch = securityManager.checkMessageSecurity(
+            "client-1", principal, authenticate("automation_service"), null, null);
+        assertFalse(mismatch.isAllowed());
+        assertEquals("Client type does not match token", mismatch.getReason());
+
+        assertTrue(securityManager.checkMessageSecurity(
+            "client-1", principal, authenticate("automation_scheduler"), null, null).isAllowed());
+    }
+
+    @Test
+    public void messagesAreRefusedOnceThePrincipalExpires() {
+        ClientPrincipal expired = new ClientPrincipal("scheduler-1", "automation_scheduler", REMOTE_IP,
+            System.currentTimeMillis() - 1);
+
+        SecurityManager.SecurityCheckResult result = securityManager.checkMessageSecurity(
+            "client-1", expired, authenticate("automation_scheduler"), null, null);
+        assertFalse(result.isAllowed());
+        assertEquals("Token expired", result.getReason());
+    }
+}
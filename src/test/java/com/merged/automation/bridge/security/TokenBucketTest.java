@@ -0,0 +1,115 @@
+package com.merged.automation.bridge.security;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long START = 1_000 * SECOND;
+
+    @Test
+    public void startsFullAndAllowsTheBurst() {
+        TokenBucket bucket = new TokenBucket(SECOND, 3, START);
+
+        assertEquals(3.0, bucket.getAvailablePermits(START), 0.0);
+        assertTrue(bucket.tryAcquire(1, START));
+        assertTrue(bucket.tryAcquire(1, START));
+        assertTrue(bucket.tryAcquire(1, START));
+        assertFalse(bucket.tryAcquire(1, START));
+        assertEquals(0.0, bucket.getAvailablePermits(START), 0.0);
+    }
+
+    @Test
+    public void refillsOnePermitPerInterval() {
+        TokenBucket bucket = new TokenBucket(SECOND, 3, START);
+        for (int i = 0; i < 3; i++) {
+            bucket.tryAcquire(1, START);
+        }
+
+        assertFalse(bucket.tryAcquire(1, START + SECOND - 1));
+        assertTrue(bucket.tryAcquire(1, START + SECOND));
+        assertFalse(bucket.tryAcquire(1, START + SECOND));
+        assertEquals(1.5, bucket.getAvailablePermits(START + SECOND + SECOND * 3 / 2), 0.0);
+    }
+
+    @Test
+    public void neverRefillsPastTheBurst() {
+        TokenBucket bucket = new TokenBucket(SECOND, 3, START);
+
+        long later = START + 100 * SECOND;
+        assertEquals(3.0, bucket.getAvailablePermits(later), 0.0);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire(1, later));
+        }
+        assertFalse(bucket.tryAcquire(1, later));
+    }
+
+    @Test
+    public void weightedAcquireTakesItsCostAtOnce() {
+        TokenBucket bucket = new TokenBucket(SECOND, 10, START);
+
+        assertTrue(bucket.tryAcquire(6, START));
+        // Four left, so a second call of cost six waits for two more
+        assertFalse(bucket.tryAcquire(6, START));
+        assertEquals(4.0, bucket.getAvailablePermits(START), 0.0);
+        assertTrue(bucket.tryAcquire(6, START + 2 * SECOND));
+        // A cost above the burst can never be paid
+        assertFalse(bucket.tryAcquire(11, START + 100 * SECOND));
+    }
+
+    @Test
+    public void isIdleOnlyOnceFullForLongEnough() {
+        TokenBucket bucket = new TokenBucket(SECOND, 3, START);
+        bucket.tryAcquire(2, START);
+
+        // Full again two seconds later
+        assertFalse(bucket.isIdle(START + 2 * SECOND, 0));
+        assertTrue(bucket.isIdle(START + 2 * SECOND + 1, 0));
+        assertFalse(bucket.isIdle(START + 5 * SECOND, 3 * SECOND));
+        assertTrue(bucket.isIdle(START + 5 * SECOND + 1, 3 * SECOND));
+    }
+
+    @Test
+    public void concurrentAcquiresNeverExceedTheBurst() throws Exception {
+        int burst = 1000;
+        TokenBucket bucket = new TokenBucket(SECOND, burst, START);
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // The clock stands still, so only the burst is there to take
+                for (int i = 0; i < burst; i++) {
+                    if (bucket.tryAcquire(1, START)) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(burst, acquired.get());
+        assertEquals(0.0, bucket.getAvailablePermits(START), 0.0);
+    }
+}
@@ -0,0 +1,107 @@
+package com.merged.automation.bridge.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PendingRequestTableTest {
+
+    private final HashedTimingWheel wheel = new HashedTimingWheel("test-wheel", 10, TimeUnit.MILLISECONDS, 64);
+    private final PendingRequestTable table = new PendingRequestTable(wheel);
+
+    @After
+    public void stop() {
+        wheel.stop();
+    }
+
+    @Test
+    public void completeMatchesReplyFromTheTarget() {
+        PendingRequestTable.PendingRequest pending = 
+            table.register("scheduler-1", "42", "service-1", "automation.execute", 10_000, p -> { });
+        assertEquals(1, table.getOutstanding("service-1"));
+
+        PendingRequestTable.PendingRequest completed = table.complete(pending.getBridgeId(), "service-1", false);
+
+        assertSame(pending, completed);
+        assertEquals("42", completed.getOriginalId());
+        assertEquals("scheduler-1", completed.getOriginClientId());
+        assertEquals(0, table.size());
+        assertEquals(0, table.getOutstanding("service-1"));
+    }
+
+    @Test
+    public void completeRejectsReplyFromAnotherClient() {
+        PendingRequestTable.PendingRequest pending = 
+            table.register("scheduler-1", "42", "service-1", "automation.execute", 10_000, p -> { });
+
+        assertNull(table.complete(pending.getBridgeId(), "service-2", false));
+        // The request still waits for the real target
+        assertEquals(1, table.size());
+        assertNotNull(table.complete(pending.getBridgeId(), "service-1", false));
+    }
+
+    @Test
+    public void completeIgnoresUnknownAndRepeatedIds() {
+        PendingRequestTable.PendingRequest pending = 
+            table.register("scheduler-1", "42", "service-1", "automation.execute", 10_000, p -> { });
+
+        assertNull(table.complete(null, "service-1", false));
+        assertNull(table.complete("bridge-unknown", "service-1", false));
+        assertNotNull(table.complete(pending.getBridgeId(), "service-1", false));
+        assertNull(table.complete(pending.getBridgeId(), "service-1", false));
+    }
+
+    @Test
+    public void timeoutRemovesRequestAndNotifies() throws Exception {
+        CountDownLatch timedOut = new CountDownLatch(1);
+        AtomicReference<PendingRequestTable.PendingRequest> notified = new AtomicReference<>();
+
+        PendingRequestTable.PendingRequest pending = table.register("scheduler-1", "42", "service-1", 
+            "automation.execute", 50, p -> {
+                notified.set(p);
+                timedOut.countDown();
+            });
+
+        assertTrue(timedOut.await(2, TimeUnit.SECONDS));
+        assertSame(pending, notified.get());
+        assertEquals(0, table.size());
+        // A late reply finds nothing to complete
+        assertNull(table.complete(pending.getBridgeId(), "service-1", false));
+    }
+
+    @Test
+    public void completedRequestDoesNotTimeOut() throws Exception {
+        CountDownLatch timedOut = new CountDownLatch(1);
+        PendingRequestTable.PendingRequest pending = table.register("scheduler-1", "42", "service-1", 
+            "automation.execute", 30, p -> timedOut.countDown());
+
+        table.complete(pending.getBridgeId(), "service-1", false);
+
+        assertFalse(timedOut.await(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void removeByTargetReturnsOnlyThatTargetsRequests() {
+        table.register("scheduler-1", "1", "service-1", "automation.execute", 10_000, p -> { });
+        table.register("scheduler-1", "2", "service-1", "automation.list", 10_000, p -> { });
+        table.register("scheduler-1", "3", "service-2", "automation.list", 10_000, p -> { });
+
+        List<PendingRequestTable.PendingRequest> removed = table.removeByTarget("service-1");
+
+        assertEquals(2, removed.size());
+        assertEquals(1, table.size());
+        assertEquals(0, table.getOutstanding("service-1"));
+        assertEquals(1, table.getOutstanding("service-2"));
+    }
+}
@@ -0,0 +1,189 @@
+package com.merged.automation.bridge.service;
+
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.ClientInfo;
+import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.websocket.RpcCodecs;
+import com.merged.automation.bridge.websocket.VncRelay;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Who gets which ticket from vnc.open_channel
+ */
+public class RpcProcessorVncTest {
+
+    private static final String SERVICE = "service-1";
+    private static final String OTHER_SERVICE = "service-2";
+    private static final String VIEWER = "scheduler-1";
+
+    private final BridgeConfig config = new BridgeConfig();
+    private final RecordingClients clients = new RecordingClients(config);
+    private final VncRelay vncRelay = new VncRelay(null, config);
+    private final RpcProcessor processor = new RpcProcessor(clients, config, vncRelay);
+
+    @Before
+    public void connectService() {
+        clients.connect(SERVICE, ClientInfo.ClientType.AUTOMATION_SERVICE);
+    }
+
+    @After
+    public void stop() {
+        processor.shutdown();
+    }
+
+    private static RpcMessage openChannel(String id, String deviceId) {
+        RpcMessage request = new RpcMessage(id, RpcMessage.MessageType.REQUEST);
+        request.setMethod("vnc.open_channel");
+        request.setParams(new LinkedHashMap<>(Map.of("deviceId", deviceId)));
+        return request;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> result(RpcMessage response) {
+        assertEquals(RpcMessage.MessageType.RESPONSE, response.getType());
+        return (Map<String, Object>) response.getResult();
+    }
+
+    private static String ticket(Map<String, Object> result) {
+        return result.get("path").toString().substring("/vnc?ticket=".length());
+    }
+
+    @Test
+    public void owningServiceGetsASourceTicket() {
+        Map<String, Object> result = result(processor.processMessage(SERVICE, openChannel("1", "device-1")));
+
+        assertEquals("source", result.get("role"));
+        VncRelay.Ticket ticket = vncRelay.redeem(ticket(result));
+        assertNotNull(ticket);
+        assertTrue(ticket.isSource());
+    }
+
+    @Test
+    public void serviceNotOwningTheDeviceNeedsTheOwnersApproval() {
+        // With two services, find a device the second one does not own
+        clients.connect(OTHER_SERVICE, ClientInfo.ClientType.AUTOMATION_SERVICE);
+        String deviceId = null;
+        for (int i = 0; deviceId == null; i++) {
+            RpcMessage response = processor.processMessage(OTHER_SERVICE, openChannel("1", "device-" + i));
+            if (response == null) {
+                deviceId = "device-" + i;
+            } else {
+                vncRelay.redeem(ticket(result(response)));
+            }
+        }
+
+        RpcMessage approval = clients.last(SERVICE);
+        assertEquals("vnc.open_channel", approval.getMethod());
+        assertEquals(deviceId, approval.getParam("deviceId"));
+        assertEquals(OTHER_SERVICE, approval.getParam("viewerId"));
+    }
+
+    @Test
+    public void viewerGetsATicketOnceTheOwnerApproves() {
+        assertNull(processor.processMessage(VIEWER, openChannel("7", "device-1")));
+        RpcMessage approval = clients.last(SERVICE);
+        assertEquals(VIEWER, approval.getParam("viewerId"));
+        assertTrue(clients.sent(VIEWER).isEmpty());
+
+        RpcMessage approved = new RpcMessage(approval.getId(), RpcMessage.MessageType.RESPONSE);
+        approved.setResult(Map.of("approved", true));
+        processor.processMessage(SERVICE, approved);
+
+        RpcMessage response = clients.last(VIEWER);
+        assertEquals("7", response.getId());
+        Map<String, Object> result = result(response);
+        assertEquals("viewer", result.get("role"));
+        VncRelay.Ticket ticket = vncRelay.redeem(ticket(result));
+        assertNotNull(ticket);
+        assertEquals("device-1", ticket.getDeviceId());
+    }
+
+    @Test
+    public void viewerRefusedByTheOwnerGetsTheError() {
+        processor.processMessage(VIEWER, openChannel("7", "device-1"));
+        RpcMessage approval = clients.last(SERVICE);
+
+        RpcMessage refused = new RpcMessage(approval.getId(), RpcMessage.MessageType.ERROR);
+        refused.setError(new RpcMessage.RpcError(RpcMessage.ErrorCodes.UNAUTHORIZED, "Not allowed"));
+        processor.processMessage(SERVICE, refused);
+
+        RpcMessage response = clients.last(VIEWER);
+        assertEquals("7", response.getId());
+        assertEquals(RpcMessage.MessageType.ERROR, response.getType());
+        assertEquals(RpcMessage.ErrorCodes.UNAUTHORIZED, response.getError().getCode());
+    }
+
+    @Test
+    public void noTicketWithoutAConnectedService() {
+        clients.disconnect(SERVICE);
+
+        RpcMessage response = processor.processMessage(VIEWER, openChannel("7", "device-1"));
+
+        assertEquals(RpcMessage.MessageType.ERROR, response.getType());
+        assertEquals(RpcMessage.ErrorCodes.CLIENT_NOT_FOUND, response.getError().getCode());
+    }
+
+    @Test
+    public void deviceIdIsRequired() {
+        RpcMessage request = new RpcMessage("7", RpcMessage.MessageType.REQUEST);
+        request.setMethod("vnc.open_channel");
+
+        RpcMessage response = processor.processMessage(VIEWER, request);
+
+        assertEquals(RpcMessage.ErrorCodes.INVALID_PARAMS, response.getError().getCode());
+    }
+
+    /**
+     * Client manager that records what it sends and announces clients to its listeners
+     */
+    private static class RecordingClients extends ClientManager {
+        private final Map<String, List<RpcMessage>> sent = new LinkedHashMap<>();
+        private final List<ClientManagerListener> listeners = new ArrayList<>();
+
+        RecordingClients(BridgeConfig config) {
+            super(new RpcCodecs(config), config, null);
+        }
+
+        @Override
+        public void addListener(ClientManagerListener listener) {
+            listeners.add(listener);
+        }
+
+        void connect(String clientId, ClientInfo.ClientType type) {
+            ClientInfo info = new ClientInfo(clientId, type, clientId);
+            listeners.forEach(listener -> listener.onClientConnected(clientId, info));
+        }
+
+        void disconnect(String clientId) {
+            ClientInfo info = new ClientInfo(clientId, ClientInfo.ClientType.AUTOMATION_SERVICE, clientId);
+            listeners.forEach(listener -> listener.onClientDisconnected(clientId, info));
+        }
+
+        @Override
+        public synchronized boolean sendMessageToClient(String clientId, RpcMessage message) {
+            sent.computeIfAbsent(clientId, id -> new ArrayList<>()).add(message);
+            return true;
+        }
+
+        synchronized List<RpcMessage> sent(String clientId) {
+            return new ArrayList<>(sent.getOrDefault(clientId, List.of()));
+        }
+
+        RpcMessage last(String clientId) {
+            List<RpcMessage> messages = sent(clientId);
+            return messages.get(messages.size() - 1);
+        }
+    }
+}
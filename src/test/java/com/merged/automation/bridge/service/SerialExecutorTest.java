@@ -0,0 +1,157 @@
+package com.merged.automation.bridge.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SerialExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void runsTasksOfOneExecutorInOrderWithoutOverlap() throws Exception {
+        SerialExecutor executor = new SerialExecutor("client-1", pool, 8);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1000);
+
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(n);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void differentExecutorsRunInParallel() throws Exception {
+        SerialExecutor first = new SerialExecutor("client-1", pool, 8);
+        SerialExecutor second = new SerialExecutor("client-2", pool, 8);
+        CountDownLatch secondRan = new CountDownLatch(1);
+        CountDownLatch firstDone = new CountDownLatch(1);
+
+        // The first client's task only finishes once the second client's task has run
+        first.execute(() -> {
+            try {
+                if (secondRan.await(5, TimeUnit.SECONDS)) {
+                    firstDone.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        second.execute(secondRan::countDown);
+
+        assertTrue(firstDone.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failingTaskDoesNotStopLaterTasks() throws Exception {
+        SerialExecutor executor = new SerialExecutor("client-1", pool, 1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+        executor.execute(done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void yieldsTheWorkerAfterMaxTasksPerRun() {
+        List<Runnable> scheduled = new ArrayList<>();
+        SerialExecutor executor = new SerialExecutor("client-1", scheduled::add, 2);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int n = i;
+            executor.execute(() -> order.add(n));
+        }
+        assertEquals(1, scheduled.size());
+
+        scheduled.remove(0).run();
+        assertEquals(List.of(0, 1), order);
+        // The drain loop handed itself back to the delegate instead of running on
+        assertEquals(1, scheduled.size());
+
+        while (!scheduled.isEmpty()) {
+            scheduled.remove(0).run();
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4), order);
+        assertEquals(0, executor.getPending());
+    }
+
+    @Test
+    public void rejectedSubmissionLeavesNothingPending() {
+        SerialExecutor executor = new SerialExecutor("client-1", task -> {
+            throw new RejectedExecutionException("shut down");
+        }, 8);
+        List<Integer> order = new ArrayList<>();
+
+        executor.execute(() -> order.add(0));
+        executor.execute(() -> order.add(1));
+
+        assertTrue(order.isEmpty());
+        assertEquals(0, executor.getPending());
+    }
+
+    @Test
+    public void rejectedYieldDropsTheQueueAndLaterTasksStillRun() {
+        List<Runnable> scheduled = new ArrayList<>();
+        AtomicBoolean rejecting = new AtomicBoolean();
+        AtomicInteger dropNotices = new AtomicInteger();
+        SerialExecutor executor = new SerialExecutor("client-1", task -> {
+            if (rejecting.get()) {
+                throw new RejectedExecutionException("saturated");
+            }
+            scheduled.add(task);
+        }, 1, dropNotices::incrementAndGet);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int n = i;
+            executor.execute(() -> order.add(n));
+        }
+
+        rejecting.set(true);
+        scheduled.remove(0).run();
+        assertEquals(List.of(0), order);
+        assertEquals(0, executor.getPending());
+        assertTrue(scheduled.isEmpty());
+        assertEquals(1, dropNotices.get());
+
+        // The next task starts a new drain loop
+        rejecting.set(false);
+        executor.execute(() -> order.add(3));
+        scheduled.remove(0).run();
+        assertEquals(List.of(0, 3), order);
+        assertEquals(0, executor.getPending());
+    }
+}
@@ -0,0 +1,260 @@
+package com.merged.automation.bridge.service;
+
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.RawParams;
+import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.websocket.RpcCodecs;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamRelayTest {
+
+    private static final String SERVICE = "service-1";
+    private static final String SCHEDULER = "scheduler-1";
+
+    private final HashedTimingWheel wheel = new HashedTimingWheel("test-wheel", 10, TimeUnit.MILLISECONDS, 64);
+    private final PendingRequestTable pendingRequests = new PendingRequestTable(wheel);
+    private final RecordingClients clients = new RecordingClients();
+    private final StreamRelay relay = new StreamRelay(clients, pendingRequests, wheel, 2, 4, 10_000);
+
+    @After
+    public void stop() {
+        wheel.stop();
+    }
+
+    /**
+     * Open a stream from the service answering a request of the scheduler
+     *
+     * @return the stream id the scheduler sees
+     */
+    private String open(String streamId) {
+        PendingRequestTable.PendingRequest pending = pendingRequests.register(SCHEDULER, "req-1", SERVICE,
+            "automation.list", 10_000, p -> { });
+        relay.open(SERVICE, message(streamId, StreamRelay.OPEN, Map.of("requestId", pending.getBridgeId())));
+        RpcMessage opened = clients.last(SCHEDULER);
+        assertEquals(StreamRelay.OPEN, opened.getMethod());
+        return opened.getId();
+    }
+
+    private static RpcMessage message(String id, String method, Map<String, Object> params) {
+        RpcMessage message = new RpcMessage(id, RpcMessage.MessageType.NOTIFICATION);
+        message.setMethod(method);
+        message.setParams(new LinkedHashMap<>(params));
+        return message;
+    }
+
+    private static RpcMessage chunk(String streamId, long seq, boolean last) {
+        return message(streamId, StreamRelay.CHUNK, Map.of("seq", seq, "data", "part-" + seq, "final", last));
+    }
+
+    private void assertCancelled(String clientId, String streamId) {
+        RpcMessage cancel = clients.last(clientId);
+        assertEquals(StreamRelay.CANCEL, cancel.getMethod());
+        assertEquals(streamId, cancel.getId());
+    }
+
+    @Test
+    public void openTellsReceiverItsRequestIdAndCredits() {
+        open("s1");
+
+        RpcMessage opened = clients.last(SCHEDULER);
+        assertEquals("req-1", opened.getParam("requestId"));
+        assertEquals("automation.list", opened.getParam("method"));
+        assertEquals(2, opened.getParam("credits"));
+        assertEquals(1L, relay.getStats().get("opened"));
+    }
+
+    @Test
+    public void openForUnknownRequestIsCancelled() {
+        relay.open(SERVICE, message("s1", StreamRelay.OPEN, Map.of("requestId", "bridge-unknown")));
+
+        assertCancelled(SERVICE, "s1");
+        assertTrue(clients.sent(SCHEDULER).isEmpty());
+    }
+
+    @Test
+    public void chunksAreRelayedInOrderUntilTheFinalOne() {
+        String relayId = open("s1");
+
+        relay.chunk(SERVICE, chunk("s1", 0, false));
+        relay.chunk(SERVICE, chunk("s1", 1, true));
+
+        List<RpcMessage> received = clients.sent(SCHEDULER);
+        assertEquals(3, received.size());
+        assertEquals(relayId, received.get(1).getId());
+        assertEquals("part-0", received.get(1).getParam("data"));
+        assertEquals("part-1", received.get(2).getParam("data"));
+        assertEquals(1L, relay.getStats().get("completed"));
+        assertEquals(0, relay.getStats().get("open"));
+    }
+
+    @Test
+    public void chunkOutOfOrderCancelsBothEnds() {
+        String relayId = open("s1");
+
+        relay.chunk(SERVICE, chunk("s1", 1, false));
+
+        assertCancelled(SERVICE, "s1");
+        assertCancelled(SCHEDULER, relayId);
+        assertEquals(1L, relay.getStats().get("cancelled"));
+    }
+
+    @Test
+    public void chunkWithoutCreditCancelsTheStream() {
+        open("s1");
+        relay.chunk(SERVICE, chunk("s1", 0, false));
+        relay.chunk(SERVICE, chunk("s1", 1, false));
+
+        relay.chunk(SERVICE, chunk("s1", 2, false));
+
+        RpcMessage cancel = clients.last(SERVICE);
+        assertEquals(StreamRelay.CANCEL, cancel.getMethod());
+        assertEquals("Chunk sent without credit", cancel.getParam("reason"));
+    }
+
+    @Test
+    public void creditsArePassedToTheSenderAndCapped() {
+        String relayId = open("s1");
+
+        relay.credit(SCHEDULER, message(relayId, StreamRelay.CREDIT, Map.of("credits", 100)));
+
+        RpcMessage credit = clients.last(SERVICE);
+        assertEquals(StreamRelay.CREDIT, credit.getMethod());
+        assertEquals("s1", credit.getId());
+        // Capped at four, so the fifth chunk has no credit left
+        for (int seq = 0; seq < 4; seq++) {
+            relay.chunk(SERVICE, chunk("s1", seq, false));
+        }
+        assertEquals(5, clients.sent(SCHEDULER).size());
+        relay.chunk(SERVICE, chunk("s1", 4, false));
+        assertCancelled(SCHEDULER, relayId);
+    }
+
+    @Test
+    public void creditFromAnotherClientIsIgnored() {
+        String relayId = open("s1");
+
+        relay.credit("scheduler-2", message(relayId, StreamRelay.CREDIT, Map.of("credits", 1)));
+
+        assertTrue(clients.sent(SERVICE).isEmpty());
+    }
+
+    @Test
+    public void cancelFromTheReceiverReachesTheSender() {
+        String relayId = open("s1");
+
+        relay.cancel(SCHEDULER, message(relayId, StreamRelay.CANCEL, Map.of("reason", "Not needed")));
+
+        RpcMessage cancel = clients.last(SERVICE);
+        assertEquals("s1", cancel.getId());
+        assertEquals("Not needed", cancel.getParam("reason"));
+        assertEquals(0, relay.getStats().get("open"));
+    }
+
+    @Test
+    public void fullReceiverQueueHoldsChunksBackInsteadOfCancelling() throws Exception {
+        String relayId = open("s1");
+        clients.refusing.add(SCHEDULER);
+
+        relay.chunk(SERVICE, chunk("s1", 0, false));
+        relay.chunk(SERVICE, chunk("s1", 1, true));
+        assertEquals(1, clients.sent(SCHEDULER).size());
+        assertTrue(clients.sent(SERVICE).isEmpty());
+
+        clients.refusing.remove(SCHEDULER);
+        long deadline = System.currentTimeMillis() + 2000;
+        // Completion is counted just after the final chunk is handed over
+        while (relay.getStats().get("completed").equals(0L) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        List<RpcMessage> received = clients.sent(SCHEDULER);
+        assertEquals(3, received.size());
+        assertEquals(relayId, received.get(1).getId());
+        assertEquals("part-0", received.get(1).getParam("data"));
+        assertEquals("part-1", received.get(2).getParam("data"));
+        assertEquals(1L, relay.getStats().get("completed"));
+    }
+
+    @Test
+    public void receivedChunksAreRelayedWithoutBindingTheirData() {
+        String relayId = open("s1");
+        RpcMessage chunk = new RpcMessage("s1", RpcMessage.MessageType.NOTIFICATION);
+        chunk.setMethod(StreamRelay.CHUNK);
+        chunk.setRawParams(RawParams.ofJson(new RpcCodecs(new BridgeConfig()).json(),
+            "{\"data\":\"part-0\",\"seq\":0,\"final\":true}"));
+
+        relay.chunk(SERVICE, chunk);
+
+        RpcMessage relayed = clients.last(SCHEDULER);
+        assertEquals(relayId, relayed.getId());
+        assertNotNull(relayed.getRawParams());
+        assertEquals(1L, relay.getStats().get("completed"));
+    }
+
+    @Test
+    public void disconnectedReceiverCancelsTheStream() {
+        open("s1");
+        clients.disconnected.add(SCHEDULER);
+
+        relay.chunk(SERVICE, chunk("s1", 0, false));
+
+        RpcMessage cancel = clients.last(SERVICE);
+        assertEquals(StreamRelay.CANCEL, cancel.getMethod());
+        assertEquals("Receiver unavailable", cancel.getParam("reason"));
+    }
+
+    /**
+     * Client manager that records what it sends. A refusing client is connected
+     * but its outbound queue is full; a disconnected one is gone.
+     */
+    private static class RecordingClients extends ClientManager {
+        private final Map<String, List<RpcMessage>> sent = new LinkedHashMap<>();
+        private final Set<String> refusing = ConcurrentHashMap.newKeySet();
+        private final Set<String> disconnected = new HashSet<>();
+
+        RecordingClients() {
+            this(new BridgeConfig());
+        }
+
+        private RecordingClients(BridgeConfig config) {
+            super(new RpcCodecs(config), config, null);
+        }
+
+        @Override
+        public synchronized boolean sendMessageToClient(String clientId, RpcMessage message) {
+            if (refusing.contains(clientId) || disconnected.contains(clientId)) {
+                return false;
+            }
+            sent.computeIfAbsent(clientId, id -> new ArrayList<>()).add(message);
+            return true;
+        }
+
+        @Override
+        public boolean isClientConnected(String clientId) {
+            return !disconnected.contains(clientId);
+        }
+
+        synchronized List<RpcMessage> sent(String clientId) {
+            return new ArrayList<>(sent.getOrDefault(clientId, List.of()));
+        }
+
+        RpcMessage last(String clientId) {
+            List<RpcMessage> messages = sent(clientId);
+            return messages.get(messages.size() - 1);
+        }
+    }
+}
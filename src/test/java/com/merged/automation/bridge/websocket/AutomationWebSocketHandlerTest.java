@@ -0,0 +1,118 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.merged.automation.bridge.TestFields;
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.ClientInfo;
+import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.security.SecurityFactory;
+import com.merged.automation.bridge.service.ClientManager;
+import com.merged.automation.bridge.service.MessageDispatcher;
+import com.merged.automation.bridge.service.RpcProcessor;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * client.authenticate on connections that presented no token at upgrade,
+ * with the default security settings
+ */
+public class AutomationWebSocketHandlerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final BridgeConfig config = new BridgeConfig();
+    private final RecordingSession recording = new RecordingSession();
+    private SecurityFactory.SecurityComponents security;
+    private ClientManager clientManager;
+    private RpcProcessor rpcProcessor;
+    private AutomationWebSocketHandler handler;
+
+    @Before
+    public void connect() {
+        // Messages are handled on the calling thread
+        TestFields.set(config, "dispatchMode", "INLINE");
+        RpcCodecs codecs = new RpcCodecs(config);
+        FrameEncoder frameEncoder = new FrameEncoder(new ArrayByteBufferPool(), 256, false);
+        security = SecurityFactory.createSecurityComponents();
+        // The default burst lets only one message through at once
+        TestFields.set(security.securityConfig, "rateLimitBurst", 10);
+        clientManager = new ClientManager(codecs, config, frameEncoder);
+        rpcProcessor = new RpcProcessor(clientManager, config, new VncRelay(frameEncoder, config));
+
+        handler = new AutomationWebSocketHandler(codecs, clientManager, rpcProcessor, security.securityManager,
+            config, new MessageDispatcher(config), WireFormat.JSON, frameEncoder, null);
+        handler.onWebSocketConnect(recording.session);
+    }
+
+    @After
+    public void stop() {
+        rpcProcessor.shutdown();
+        security.ipWhitelistService.shutdown();
+    }
+
+    private JsonNode send(String message) throws Exception {
+        int before = recording.writes();
+        handler.onWebSocketText(message);
+        assertEquals(before + 1, recording.writes());
+        recording.completeAll();
+        return MAPPER.readTree(recording.text(before));
+    }
+
+    private static String authenticate(String id, String type) {
+        return "{\"id\":\"" + id + "\",\"type\":\"NOTIFICATION\",\"method\":\"client.authenticate\","
+            + "\"params\":{\"type\":\"" + type + "\",\"name\":\"Scheduler\",\"version\":\"1.0.0\"}}";
+    }
+
+    private static String ping(String id) {
+        return "{\"id\":\"" + id + "\",\"type\":\"REQUEST\",\"method\":\"server.ping\"}";
+    }
+
+    @Test
+    public void messagesBeforeAuthenticationAreRefused() throws Exception {
+        JsonNode reply = send(ping("1"));
+
+        assertEquals("ERROR", reply.get("type").asText());
+        assertEquals(RpcMessage.ErrorCodes.UNAUTHORIZED, reply.get("error").get("code").asInt());
+        assertEquals("Authentication required", reply.get("error").get("message").asText());
+    }
+
+    @Test
+    public void authenticateRepliesWithATokenAndLetsLaterMessagesThrough() throws Exception {
+        JsonNode reply = send(authenticate("auth-1", "automation_scheduler"));
+
+        assertEquals("RESPONSE", reply.get("type").asText());
+        assertEquals("auth-1", reply.get("id").asText());
+        String token = reply.get("result").get("token").asText();
+        assertTrue(security.jwtService.validateTokenForClient(token, handler.getClientId()));
+        assertTrue(security.securityManager.isClientAuthenticated(handler.getClientId()));
+
+        ClientInfo info = clientManager.getClientInfo(handler.getClientId());
+        assertEquals(ClientInfo.ClientType.AUTOMATION_SCHEDULER, info.getType());
+        assertEquals(ClientInfo.ClientStatus.CONNECTED, info.getStatus());
+
+        JsonNode pong = send(ping("2"));
+        assertEquals("RESPONSE", pong.get("type").asText());
+        assertEquals("2", pong.get("id").asText());
+    }
+
+    @Test
+    public void invalidTokenIsRefused() throws Exception {
+        JsonNode reply = send("{\"id\":\"auth-1\",\"type\":\"NOTIFICATION\",\"method\":\"client.authenticate\","
+            + "\"params\":{\"type\":\"automation_scheduler\",\"name\":\"Scheduler\",\"token\":\"not-a-token\"}}");
+
+        assertEquals("ERROR", reply.get("type").asText());
+        assertEquals("auth-1", reply.get("id").asText());
+        assertEquals(RpcMessage.ErrorCodes.UNAUTHORIZED, reply.get("error").get("code").asInt());
+        assertEquals("Invalid token", reply.get("error").get("message").asText());
+        assertFalse(security.securityManager.isClientAuthenticated(handler.getClientId()));
+
+        assertEquals("Authentication required", send(ping("2")).get("error").get("message").asText());
+    }
+}
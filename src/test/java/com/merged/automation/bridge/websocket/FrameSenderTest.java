@@ -0,0 +1,41 @@
+package com.merged.automation.bridge.websocket;
+
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FrameSenderTest {
+
+    @Test
+    public void fallsBackToRemoteEndpointForOtherSessions() {
+        RecordingSession recording = new RecordingSession();
+        FrameSender sender = FrameSender.of(recording.session);
+
+        sender.send(EncodedFrame.wrap("{\"a\":1}".getBytes(StandardCharsets.UTF_8)), Callback.NOOP, true);
+        sender.send(EncodedFrame.wrap(new byte[]{1, 2, 3}, true), Callback.NOOP, false);
+
+        assertEquals("{\"a\":1}", recording.sent.get(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) recording.sent.get(1));
+    }
+
+    @Test
+    public void completesTheCallbackWithTheWrite() {
+        RecordingSession recording = new RecordingSession();
+        AtomicReference<String> outcome = new AtomicReference<>();
+
+        FrameSender.of(recording.session).send(EncodedFrame.wrap(new byte[]{1}, true), 
+            Callback.from(() -> outcome.set("ok"), failure -> outcome.set(failure.getMessage())), false);
+        assertNull(outcome.get());
+
+        WriteCallback callback = recording.callbacks.get(0);
+        callback.writeFailed(new IllegalStateException("broken pipe"));
+        assertEquals("broken pipe", outcome.get());
+    }
+}
@@ -0,0 +1,139 @@
+package com.merged.automation.bridge.websocket;
+
+import com.merged.automation.bridge.TestFields;
+import com.merged.automation.bridge.config.BridgeConfig;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+
+    private final RecordingSession recording = new RecordingSession();
+    private final AtomicInteger released = new AtomicInteger();
+
+    private OutboundQueue newQueue(String overflowPolicy) {
+        BridgeConfig config = new BridgeConfig();
+        TestFields.set(config, "outboundHighWatermark", 4);
+        TestFields.set(config, "outboundLowWatermark", 2);
+        TestFields.set(config, "outboundOverflowPolicy", overflowPolicy);
+        TestFields.set(config, "outboundSlowConsumerTimeout", 0L);
+        return new OutboundQueue("client-1", recording.session, config, WireFormat.JSON, null);
+    }
+
+    private EncodedFrame frame(String text) {
+        return EncodedFrame.wrap(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), false, released::incrementAndGet);
+    }
+
+    @Test
+    public void saturatesAtHighWatermarkAndRecoversAtLowWatermark() {
+        OutboundQueue queue = newQueue("BACKPRESSURE");
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(frame("m" + i)));
+        }
+        assertTrue(queue.isSaturated());
+        // Only the first message is written until its write completes
+        assertEquals(1, recording.writes());
+
+        assertFalse(queue.offer(frame("rejected")));
+        assertEquals(1, released.get());
+
+        // One of four written: still above the low watermark
+        recording.completeNext();
+        assertTrue(queue.isSaturated());
+        assertEquals(4, recording.writes());
+
+        recording.completeAll();
+        assertFalse(queue.isSaturated());
+        assertEquals(0, queue.getDepth());
+        assertEquals(5, released.get());
+
+        assertTrue(queue.offer(frame("after")));
+        assertEquals("after", recording.text(4));
+        assertTrue(recording.open);
+    }
+
+    @Test
+    public void disconnectsSlowConsumerOnceSaturatedPastTimeout() {
+        OutboundQueue queue = newQueue("DISCONNECT");
+        for (int i = 0; i < 4; i++) {
+            queue.offer(frame("m" + i));
+        }
+
+        assertFalse(queue.offer(frame("rejected")));
+
+        assertFalse(recording.open);
+        assertEquals(1008, recording.closeStatus);
+        // The rejected frame and the three still queued; the one in flight is released by its write
+        assertEquals(4, released.get());
+        assertFalse(queue.offer(frame("closed")));
+        assertEquals(5, released.get());
+    }
+
+    @Test
+    public void backpressurePolicyKeepsTheSessionOpen() {
+        OutboundQueue queue = newQueue("BACKPRESSURE");
+        for (int i = 0; i < 5; i++) {
+            queue.offer(frame("m" + i));
+        }
+
+        assertTrue(recording.open);
+        assertEquals(1L, queue.getStats().get("rejected"));
+    }
+
+    @Test
+    public void conflationReplacesQueuedFrameWithSameKey() {
+        OutboundQueue queue = newQueue("BACKPRESSURE");
+        queue.offer(frame("in flight"));
+
+        assertTrue(queue.offer(frame("a1"), "a"));
+        assertTrue(queue.offer(frame("b1"), "b"));
+        assertTrue(queue.offer(frame("a2"), "a"));
+        assertEquals(1, released.get());
+        assertEquals(3, queue.getDepth());
+
+        recording.completeAll();
+        assertEquals(3, recording.writes());
+        assertEquals("a2", recording.text(1));
+        assertEquals("b1", recording.text(2));
+        assertEquals(1L, queue.getStats().get("conflated"));
+    }
+
+    @Test
+    public void conflationKeyIsFreedOnceTheFrameIsWritten() {
+        OutboundQueue queue = newQueue("BACKPRESSURE");
+        queue.offer(frame("a1"), "a");
+        assertEquals(1, recording.writes());
+
+        // a1 is already on the wire, so a2 queues behind it instead of replacing it
+        queue.offer(frame("a2"), "a");
+        recording.completeAll();
+
+        assertEquals(2, recording.writes());
+        assertEquals("a2", recording.text(1));
+        assertEquals(0L, queue.getStats().get("conflated"));
+    }
+
+    @Test
+    public void closeReleasesQueuedFramesAndRejectsNewOnes() {
+        OutboundQueue queue = newQueue("BACKPRESSURE");
+        queue.offer(frame("in flight"));
+        queue.offer(frame("queued 1"));
+        queue.offer(frame("queued 2"));
+
+        queue.close();
+        assertEquals(2, released.get());
+
+        assertFalse(queue.offer(frame("late")));
+        assertEquals(3, released.get());
+
+        recording.completeAll();
+        assertEquals(4, released.get());
+    }
+}
@@ -0,0 +1,112 @@
+package com.merged.automation.bridge.websocket;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Session stand-in that records what is written to it and leaves completing
+ * the writes to the test
+ */
+class RecordingSession {
+    final List<Object> sent = new ArrayList<>();
+    final List<WriteCallback> callbacks = new ArrayList<>();
+    boolean open = true;
+    int closeStatus;
+
+    final Session session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{Session.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isOpen":
+                    return open;
+                case "getRemote":
+                    return remote();
+                case "getRemoteAddress":
+                    return new InetSocketAddress("127.0.0.1", 40000);
+                case "close":
+                    open = false;
+                    if (args != null && args.length >= 1 && args[0] instanceof Integer) {
+                        closeStatus = (Integer) args[0];
+                    }
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "RecordingSession";
+                default:
+                    return null;
+            }
+        });
+
+    private RemoteEndpoint remote() {
+        return (RemoteEndpoint) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{RemoteEndpoint.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "sendString":
+                    case "sendBytes":
+                        synchronized (this) {
+                            sent.add(args[0] instanceof ByteBuffer ? copy((ByteBuffer) args[0]) : args[0]);
+                            callbacks.add(args.length > 1 ? (WriteCallback) args[1] : WriteCallback.NOOP);
+                        }
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    synchronized int writes() {
+        return sent.size();
+    }
+
+    synchronized String text(int index) {
+        Object payload = sent.get(index);
+        return payload instanceof String ? (String) payload : new String((byte[]) payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Complete every write that has not completed yet
+     */
+    void completeAll() {
+        List<WriteCallback> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(callbacks);
+            callbacks.replaceAll(callback -> WriteCallback.NOOP);
+        }
+        pending.forEach(WriteCallback::writeSuccess);
+    }
+
+    /**
+     * Complete the oldest outstanding write
+     */
+    void completeNext() {
+        WriteCallback next = null;
+        synchronized (this) {
+            for (int i = 0; i < callbacks.size(); i++) {
+                if (callbacks.get(i) != WriteCallback.NOOP) {
+                    next = callbacks.get(i);
+                    callbacks.set(i, WriteCallback.NOOP);
+                    break;
+                }
+            }
+        }
+        if (next != null) {
+            next.writeSuccess();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.AutomationParams;
+import com.merged.automation.bridge.model.RpcMessage;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RpcCodecsTest {
+
+    private final RpcCodecs codecs = new RpcCodecs(new BridgeConfig());
+
+    @Test
+    public void jsonCodecWritesDoublesWithTheFastWriter() throws Exception {
+        assertTrue(codecs.json().getFactory().isEnabled(StreamWriteFeature.USE_FAST_DOUBLE_WRITER));
+        assertEquals("[0.1,2.5E-7]", codecs.json().getMapper().writeValueAsString(new double[]{0.1, 2.5e-7}));
+    }
+
+    @Test
+    public void localMapParamsBindIntoParamClass() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("automationId", "a-1");
+        params.put("deviceId", "d-1");
+        params.put("unknown", 1);
+        RpcMessage message = new RpcMessage();
+        message.setMethod("automation.execute");
+        message.setParams(params);
+
+        AutomationParams bound = message.getParams(AutomationParams.class);
+
+        assertEquals("a-1", bound.getAutomationId());
+        assertEquals("d-1", bound.getDeviceId());
+    }
+}
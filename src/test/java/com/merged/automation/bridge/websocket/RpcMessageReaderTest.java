@@ -0,0 +1,265 @@
+package com.merged.automation.bridge.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.exc.StreamConstraintsException;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.merged.automation.bridge.TestFields;
+import com.merged.automation.bridge.config.BridgeConfig;
+import com.merged.automation.bridge.model.RpcMessage;
+import com.merged.automation.bridge.security.ValidationService;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Read limits and params sizes, checked for every wire format
+ */
+public class RpcMessageReaderTest {
+
+    private static final int MAX_DEPTH = 8;
+    private static final int MAX_ENTRIES = 16;
+    private static final int MAX_BATCH = 4;
+
+    private final RpcCodecs codecs;
+
+    public RpcMessageReaderTest() {
+        BridgeConfig config = new BridgeConfig();
+        TestFields.set(config, "limitsMaxNestingDepth", MAX_DEPTH);
+        TestFields.set(config, "limitsMaxContainerEntries", MAX_ENTRIES);
+        codecs = new RpcCodecs(config);
+    }
+
+    private static Map<String, Object> message(String id, Object params) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("id", id);
+        message.put("type", "REQUEST");
+        message.put("method", "automation.list");
+        message.put("params", params);
+        return message;
+    }
+
+    private RpcMessageReader.ParsedFrame read(WireFormat format, Object value) throws IOException {
+        RpcCodec codec = codecs.get(format);
+        byte[] data = codec.getMapper().writeValueAsBytes(value);
+        return RpcMessageReader.read(codec, data, 0, data.length, MAX_BATCH);
+    }
+
+    private static Object nested(int depth) {
+        Object value = "leaf";
+        for (int i = 0; i < depth; i++) {
+            Map<String, Object> wrapper = new LinkedHashMap<>();
+            wrapper.put("n", value);
+            value = wrapper;
+        }
+        return value;
+    }
+
+    private void assertRejected(WireFormat format, Object value, Class<? extends IOException> expected) {
+        try {
+            read(format, value);
+            fail(format + " accepted a frame over the limit");
+        } catch (IOException e) {
+            assertTrue(format + " failed with " + e, expected.isInstance(e));
+        }
+    }
+
+    @Test
+    public void acceptsMessagesWithinLimits() throws IOException {
+        for (WireFormat format : WireFormat.values()) {
+            RpcMessage message = read(format, message("1", nested(MAX_DEPTH - 2))).getMessages().get(0);
+            assertEquals("1", message.getId());
+            assertEquals("automation.list", message.getMethod());
+            assertTrue(message.getParams().containsKey("n"));
+        }
+    }
+
+    @Test
+    public void rejectsParamsNestedTooDeeply() {
+        for (WireFormat format : WireFormat.values()) {
+            assertRejected(format, message("1", nested(MAX_DEPTH)), StreamConstraintsException.class);
+        }
+    }
+
+    @Test
+    public void rejectsObjectsWithTooManyFields() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i <= MAX_ENTRIES; i++) {
+            params.put("f" + i, i);
+        }
+        for (WireFormat format : WireFormat.values()) {
+            assertRejected(format, message("1", params), StreamConstraintsException.class);
+        }
+    }
+
+    @Test
+    public void rejectsArraysWithTooManyElements() {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i <= MAX_ENTRIES; i++) {
+            values.add(i);
+        }
+        for (WireFormat format : WireFormat.values()) {
+            assertRejected(format, message("1", Map.of("values", values)), StreamConstraintsException.class);
+        }
+    }
+
+    @Test
+    public void countsSkippedValuesToo() {
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put("id", "1");
+        reply.put("type", "RESPONSE");
+        reply.put("result", nested(MAX_DEPTH + 1));
+        for (WireFormat format : WireFormat.values()) {
+            assertRejected(format, reply, StreamConstraintsException.class);
+        }
+    }
+
+    @Test
+    public void limitsBatchSize() throws IOException {
+        List<Object> batch = new ArrayList<>();
+        for (int i = 0; i < MAX_BATCH; i++) {
+            batch.add(message(String.valueOf(i), Map.of()));
+        }
+        for (WireFormat format : WireFormat.values()) {
+            RpcMessageReader.ParsedFrame frame = read(format, batch);
+            assertTrue(frame.isBatch());
+            assertEquals(MAX_BATCH, frame.getMessages().size());
+        }
+
+        batch.add(message("over", Map.of()));
+        for (WireFormat format : WireFormat.values()) {
+            assertRejected(format, batch, MismatchedInputException.class);
+        }
+    }
+
+    /**
+     * Request with a params object, writing the given field name twice at the top level or in params
+     */
+    private static byte[] withRepeatedKey(RpcCodec codec, String repeated, boolean inParams) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = codec.getMapper().getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("id", "1");
+            generator.writeStringField("type", "REQUEST");
+            generator.writeStringField("method", "automation.get");
+            if (!inParams) {
+                generator.writeStringField(repeated, "other");
+            }
+            generator.writeObjectFieldStart("params");
+            generator.writeStringField("automationId", "a1");
+            if (inParams) {
+                generator.writeStringField(repeated, "a2");
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void rejectsRepeatedKeysInEveryFormat() throws IOException {
+        for (WireFormat format : WireFormat.values()) {
+            RpcCodec codec = codecs.get(format);
+            for (String key : List.of("id", "method")) {
+                byte[] data = withRepeatedKey(codec, key, false);
+                try {
+                    RpcMessageReader.read(codec, data, 0, data.length, MAX_BATCH);
+                    fail(format + " accepted a repeated " + key);
+                } catch (JsonParseException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("Duplicate field '" + key + "'"));
+                }
+            }
+            byte[] data = withRepeatedKey(codec, "automationId", true);
+            try {
+                RpcMessageReader.read(codec, data, 0, data.length, MAX_BATCH);
+                fail(format + " accepted a repeated params key");
+            } catch (JsonParseException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Duplicate field 'automationId'"));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsRepeatedKeysInText() {
+        String text = "{\"id\":\"1\",\"type\":\"REQUEST\",\"method\":\"automation.get\","
+            + "\"params\":{\"automationId\":\"a1\"},\"method\":\"automation.execute\"}";
+        try {
+            RpcMessageReader.read(codecs.json(), text, MAX_BATCH);
+            fail("Accepted a repeated method");
+        } catch (IOException e) {
+            assertTrue(e.toString(), e instanceof JsonParseException);
+        }
+    }
+
+    @Test
+    public void measuresParamsOfEveryFormat() throws IOException {
+        Map<String, Object> params = Map.of("filter", "x".repeat(500));
+        for (WireFormat format : WireFormat.values()) {
+            int size = read(format, message("1", params)).getMessages().get(0).getParamsSize();
+            assertTrue(format + " params measured as " + size, size > 500 && size < 550);
+        }
+    }
+
+    @Test
+    public void oversizedParamsFailValidationInEveryFormat() throws IOException {
+        ValidationService validation = new ValidationService();
+        Map<String, Object> params = Map.of("filter", "x".repeat(11 * 1024));
+        for (WireFormat format : WireFormat.values()) {
+            RpcMessage message = read(format, message("1", params)).getMessages().get(0);
+            ValidationService.ValidationResult result = validation.validateRpcMessage(message, null);
+            assertFalse(format + " params passed validation", result.isValid());
+            assertEquals("Parameters too large", result.getErrorMessage());
+        }
+    }
+
+    @Test
+    public void measuresParamsWhenTheParserReportsNoOffsets() throws IOException {
+        RpcCodec codec = new RpcCodec(new NoOffsetsFactory(), false, false, StreamReadConstraints.defaults(), 1024);
+        byte[] data = codec.getMapper().writeValueAsBytes(message("1", Map.of("filter", "x".repeat(11 * 1024))));
+
+        RpcMessage message = RpcMessageReader.read(codec, data, 0, data.length, MAX_BATCH).getMessages().get(0);
+
+        assertTrue(message.getParamsSize() > 11 * 1024);
+        assertFalse(new ValidationService().validateRpcMessage(message, null).isValid());
+    }
+
+    /**
+     * Binary-like factory whose parsers report unknown locations, as some format parsers do
+     */
+    private static class NoOffsetsFactory extends JsonFactory {
+        @Override
+        public boolean canHandleBinaryNatively() {
+            return true;
+        }
+
+        @Override
+        public JsonParser createParser(byte[] data, int offset, int len) throws IOException {
+            return new JsonParserDelegate(super.createParser(data, offset, len)) {
+                @Override
+                public JsonLocation getTokenLocation() {
+                    return JsonLocation.NA;
+                }
+
+                @Override
+                public JsonLocation getCurrentLocation() {
+                    return JsonLocation.NA;
+                }
+            };
+        }
+    }
+}